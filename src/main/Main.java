@@ -6,17 +6,21 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 
+import main.runners.BenchmarkRunner;
 import main.runners.ExperimentalRunner;
 import main.runners.GraphMaker;
+import main.runners.GraphPruner;
 import main.runners.GraphReducer;
 import main.runners.GraphSearcher;
 import main.runners.GraphSplitter;
 import main.utils.Graph;
 import main.utils.GraphUtils;
+import main.walkers.WalkerType;
 
 /**
  * Main class for running MovieChainRunner functions
@@ -25,17 +29,34 @@ import main.utils.GraphUtils;
  * -h                 Usage info 
  * -c                 Create full graph from movie list 
  * -s                 Split full graph into components 
+ * -S [graph]         Split a given graph into strongly connected components
  * -d [graph]         Reduce a given graph 
+ *   --prune [rules]    Prune with comma separated rules (isolated, reach, all)
  * -r [graph]         Run on given graph 
+ *   --walker [type]    slow, fast, deterministic, experimental, exact,
+ *                      exhaustive or island
+ *   --threads [n]      Number of walkers, defaults to one per core
+ *   --time [s]         Stop after s seconds
+ *   --walks [n]        Stop after n walks in total
+ *   --seed [n]         Seed walker x with n + x
+ *   --extend [graph]   Graph the experimental walker extends paths into
+ *   --checkpoint [s]   Checkpoint every s seconds, defaults to 60
+ *   --resume           Carry on from the last checkpoint and results
+ *   --metrics [s]      Log walker metrics every s seconds, defaults to 10
+ *   --cache [MB]       Reachability cache for slow walkers, defaults to 64, 0 for none
  * -p [graph]         Print a graph to graphml format
  * -x                 Run Experimental
+ * -m [filter]        Run benchmarks, optionally only those matching filter
+ * -b [graph]         Convert a text graph to binary format
+ * -t [graph]         Convert a binary graph to text format
  * 
  * @author Peijin Zhang
  */
 public class Main {
   private static final String SP = File.separator;
   private static final String MOVIE_LIST = "/MovieList.txt";
-  private static final String FULL_GRAPH = "/FullGraph.txt";
+  private static final String FULL_GRAPH_NAME = "FullGraph";
+  private static final String FULL_GRAPH = "/" + FULL_GRAPH_NAME + ".txt";
   private static final String RESULT_DIR = "results";
 
   /**
@@ -55,7 +76,7 @@ public class Main {
    * Splits the full graph into connected components
    */
   public static void splitComponents() throws IOException {
-    URL fullgraph = Main.class.getResource(FULL_GRAPH);
+    URL fullgraph = GraphUtils.findGraph(FULL_GRAPH_NAME);
     if (fullgraph == null) {
       throw new RuntimeException("Full graph not created, run -c first");
     }
@@ -67,12 +88,32 @@ public class Main {
       }
     }
 
-    printSummary(graphs);
+    printSummary(graphs, "ComponentSummary.txt");
   }
 
-  private static void printSummary(Set<Graph> graphs) throws IOException {
+  /**
+   * Splits a graph into strongly connected components, writing those large
+   * enough to data in the format [graph]SCC[n].txt
+   */
+  public static void splitStrongComponents(String component) throws IOException {
+    URL componentDir = GraphUtils.findGraph(component);
+    if (componentDir == null) {
+      throw new IllegalArgumentException("Graph does not exist");
+    }
+
+    Set<Graph> graphs = GraphSplitter.splitSCC(componentDir);
+    for (Graph graph : graphs) {
+      if (graph.size() >= GraphUtils.CANDIDATE_CUTOFF) {
+        graph.writeToFile("data" + SP + graph.getName() + ".txt");
+      }
+    }
+
+    printSummary(graphs, component + "SCCSummary.txt");
+  }
+
+  private static void printSummary(Set<Graph> graphs, String filename) throws IOException {
     PrintWriter out = new PrintWriter(new FileWriter(new File(RESULT_DIR + SP
-        + "ComponentSummary.txt")));
+        + filename)));
 
     out.println("Total graphs: " + graphs.size());
     TreeMap<Integer, ArrayList<Graph>> sizes = new TreeMap<Integer, ArrayList<Graph>>();
@@ -102,8 +143,35 @@ public class Main {
     out.close();
   }
 
-  public static void reduceGraph(String component) throws IOException {
-    URL componentDir = Main.class.getResource("/" + component + ".txt");
+  /**
+   * Converts a text graph to the binary format, written next to it in data
+   */
+  public static void convertToBinary(String component) throws IOException {
+    URL text = Main.class.getResource("/" + component + ".txt");
+    if (text == null) {
+      throw new IllegalArgumentException("Text graph does not exist");
+    }
+    Graph.readGraph(text).writeBinary("data" + SP + component + Graph.BINARY_EXTENSION);
+  }
+
+  /**
+   * Converts a binary graph back to the text format, written next to it in data
+   */
+  public static void convertToText(String component) throws IOException {
+    URL binary = Main.class.getResource("/" + component + Graph.BINARY_EXTENSION);
+    if (binary == null) {
+      throw new IllegalArgumentException("Binary graph does not exist");
+    }
+    Graph.readGraph(binary).writeToFile("data" + SP + component + ".txt");
+  }
+
+  /**
+   * Reduces a graph to data in the format [graph]Reduced.txt
+   * 
+   * Uses the pruning pipeline if --prune is given in the options
+   */
+  public static void reduceGraph(String component, List<String> options) throws IOException {
+    URL componentDir = GraphUtils.findGraph(component);
     if (componentDir == null) {
       throw new IllegalArgumentException("Graph does not exist");
     }
@@ -111,21 +179,96 @@ public class Main {
     String outputPath = "data" + SP + component + "Reduced.txt";
 
     Graph input = Graph.readGraph(componentDir);
-    Graph reduced = GraphReducer.reduceGraph(input);
+    String prune = getOption(options, "--prune");
+    Graph reduced;
+    if (prune == null) {
+      reduced = GraphReducer.reduceGraph(input);
+    } else if (prune.equalsIgnoreCase("all")) {
+      reduced = GraphReducer.pruneGraph(input, GraphPruner.defaultRules());
+    } else {
+      reduced = GraphReducer.pruneGraph(input, GraphPruner.parseRules(prune));
+    }
     reduced.writeToFile(outputPath);
   }
 
   /**
-   * Starts a thread for each graph to search through Each thread will write
+   * Starts a pool of walkers to search through the graph. Walkers will write
    * results to a result directory in the format [graph]Results.txt
+   * 
+   * Search options are read from the given arguments
    */
-  public static void searchGraph(String component) throws IOException {
-    URL componentDir = Main.class.getResource("/" + component + ".txt");
+  public static void searchGraph(String component, List<String> options) 
+      throws IOException, InterruptedException {
+    URL componentDir = GraphUtils.findGraph(component);
     if (componentDir == null) {
       throw new IllegalArgumentException("Specified graph does not exist");
     }
 
-    new GraphSearcher(componentDir, RESULT_DIR).searchGraph();
+    String threads = getOption(options, "--threads");
+    GraphSearcher searcher = (threads == null) 
+        ? new GraphSearcher(componentDir, RESULT_DIR)
+        : new GraphSearcher(componentDir, RESULT_DIR, Integer.parseInt(threads));
+
+    String walker = getOption(options, "--walker");
+    if (walker != null) {
+      searcher.setWalkerType(WalkerType.fromName(walker));
+    }
+
+    String extend = getOption(options, "--extend");
+    if (extend != null) {
+      URL extendDir = GraphUtils.findGraph(extend);
+      if (extendDir == null) {
+        throw new IllegalArgumentException("Graph to extend into does not exist");
+      }
+      searcher.setExtension(Graph.readGraph(extendDir));
+    }
+
+    String time = getOption(options, "--time");
+    if (time != null) {
+      searcher.setTimeLimit(Long.parseLong(time));
+    }
+
+    String walks = getOption(options, "--walks");
+    if (walks != null) {
+      searcher.setWalkLimit(Long.parseLong(walks));
+    }
+
+    String seed = getOption(options, "--seed");
+    if (seed != null) {
+      searcher.setSeed(Long.parseLong(seed));
+    }
+
+    String checkpoint = getOption(options, "--checkpoint");
+    if (checkpoint != null) {
+      searcher.setCheckpointInterval(Long.parseLong(checkpoint));
+    }
+    searcher.setResume(options.contains("--resume"));
+
+    String metrics = getOption(options, "--metrics");
+    if (metrics != null) {
+      searcher.setMetricsInterval(Long.parseLong(metrics));
+    }
+
+    String cache = getOption(options, "--cache");
+    if (cache != null) {
+      searcher.setCacheSize(Integer.parseInt(cache));
+    }
+
+    searcher.searchGraph();
+  }
+
+  /**
+   * Returns the value following an option, or null if the option isn't given
+   */
+  private static String getOption(List<String> args, String option) {
+    int loc = args.indexOf(option);
+    if (loc < 0) {
+      return null;
+    }
+    if (loc + 1 >= args.size()) {
+      throw new IllegalArgumentException("Must specify value for " + option);
+    }
+    return args.get(loc + 1);
   }
 
   public static void main(String[] args) throws Exception {
@@ -142,13 +285,49 @@ public class Main {
       System.out.println("-h                Usage info");
       System.out.println("-c                Create full graph from movie list");
       System.out.println("-s                Split full graph into components");
+      System.out.println("-S [graph]        Split a given graph into strongly connected components");
       System.out.println("-d [graph]        Reduce a given graph");
+      System.out.println("  --prune [rules]   Prune with comma separated rules (isolated, reach, all)");
       System.out.println("-r [graph]        Run on given graph");
+      System.out.println("  --walker [type]   slow, fast, deterministic, experimental, exact,");
+      System.out.println("                    exhaustive or island");
+      System.out.println("  --threads [n]     Number of walkers, defaults to one per core");
+      System.out.println("  --time [s]        Stop after s seconds");
+      System.out.println("  --walks [n]       Stop after n walks in total");
+      System.out.println("  --seed [n]        Seed walker x with n + x");
+      System.out.println("  --extend [graph]  Graph the experimental walker extends paths into");
+      System.out.println("  --checkpoint [s]  Checkpoint every s seconds, defaults to 60");
+      System.out.println("  --resume          Carry on from the last checkpoint and results");
+      System.out.println("  --metrics [s]     Log walker metrics every s seconds, defaults to 10");
+      System.out.println("  --cache [MB]      Reachability cache for slow walkers, defaults to 64,");
+      System.out.println("                    0 for none");
       System.out.println("-p [graph]        Print a graph to graphml format");
       System.out.println("-x                Run Experimental");
+      System.out.println("-m [filter]       Run benchmarks, optionally only those matching filter");
+      System.out.println("-b [graph]        Convert a text graph to binary format");
+      System.out.println("-t [graph]        Convert a binary graph to text format");
       return;
     }
 
+    // Convert graph formats
+    int bloc = -1;
+    if ((bloc = arglist.indexOf("-b")) >= 0) {
+      try {
+        Main.convertToBinary(arglist.get(bloc + 1));
+      } catch (IndexOutOfBoundsException e) {
+        throw new IllegalArgumentException("Must specify graph to convert with -b");
+      }
+    }
+
+    int tloc = -1;
+    if ((tloc = arglist.indexOf("-t")) >= 0) {
+      try {
+        Main.convertToText(arglist.get(tloc + 1));
+      } catch (IndexOutOfBoundsException e) {
+        throw new IllegalArgumentException("Must specify graph to convert with -t");
+      }
+    }
+
     // Create full graph
     if (arglist.contains("-c")) {
       Main.makeFullGraph();
@@ -159,12 +338,22 @@ public class Main {
       Main.splitComponents();
     }
 
+    // Split a graph into strongly connected components
+    int sloc = -1;
+    if ((sloc = arglist.indexOf("-S")) >= 0) {
+      try {
+        Main.splitStrongComponents(arglist.get(sloc + 1));
+      } catch (IndexOutOfBoundsException e) {
+        throw new IllegalArgumentException("Must specify graph to split with -S");
+      }
+    }
+
     // Reduce a graph
     int dloc = -1;
     if ((dloc = arglist.indexOf("-d")) >= 0) {
       try {
         String component = arglist.get(dloc + 1);
-        Main.reduceGraph(component);
+        Main.reduceGraph(component, arglist);
       } catch (IndexOutOfBoundsException e) {
         throw new IllegalArgumentException("Must specify graph to run with -d");
       }
@@ -175,7 +364,7 @@ public class Main {
     if ((rloc = arglist.indexOf("-r")) >= 0) {
       try {
         String component = arglist.get(rloc + 1);
-        Main.searchGraph(component);
+        Main.searchGraph(component, arglist);
       } catch (IndexOutOfBoundsException e) {
         throw new IllegalArgumentException("Must specify graph to run with -r");
       }
@@ -187,7 +376,7 @@ public class Main {
       try {
         String component = arglist.get(ploc + 1);
 
-        URL componentDir = Main.class.getResource("/" + component + ".txt");
+        URL componentDir = GraphUtils.findGraph(component);
         if (componentDir == null) {
           throw new IllegalArgumentException("Graph does not exist");
         }
@@ -204,5 +393,15 @@ public class Main {
     if (arglist.contains("-x")) {
       ExperimentalRunner.runExperimental();
     }
+
+    // Run benchmarks
+    int mloc = -1;
+    if ((mloc = arglist.indexOf("-m")) >= 0) {
+      String filter = null;
+      if (mloc + 1 < arglist.size() && !arglist.get(mloc + 1).startsWith("-")) {
+        filter = arglist.get(mloc + 1);
+      }
+      BenchmarkRunner.runBenchmarks(filter);
+    }
   }
 }
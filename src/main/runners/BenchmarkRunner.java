@@ -0,0 +1,323 @@
+package main.runners;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import main.utils.BitsetUtils;
+import main.utils.Graph;
+import main.utils.GraphUtils;
+import main.utils.ReachabilityMatrix;
+import main.walkers.DeterministicWalker;
+import main.walkers.FastWalker;
+import main.walkers.ResultPublisher;
+import main.walkers.SlowWalker;
+import main.walkers.TwoWayWalker;
+
+/**
+ * Micro benchmarks for graph construction, reachability and walking
+ * 
+ * Each benchmark is warmed up and then run for a fixed number of timed
+ * iterations on the calling thread. Throughput is reported along with the
+ * bytes allocated per operation, the allocation rate and the GC activity seen
+ * during measurement.
+ * 
+ * @author Peijin Zhang
+ */
+public class BenchmarkRunner {
+  private static final int WARMUP_ITERATIONS = 5;
+  private static final int MEASURE_ITERATIONS = 5;
+  private static final long ITERATION_NANOS = 1000000000L;
+  // maxLength seen by the walker benchmarks
+  private static final int WALK_CUTOFF = 250;
+
+  // Results are folded into here so the JIT can't drop benchmark bodies
+  private static volatile long sink;
+
+  /**
+   * A single benchmarked operation
+   */
+  public static abstract class Benchmark {
+    private final String name;
+
+    public Benchmark(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Runs one operation and returns a value depending on its result
+     */
+    public abstract long run() throws Exception;
+  }
+
+  /**
+   * Runs all benchmarks whose name contains the filter, or all if it's null
+   */
+  public static void runBenchmarks(String filter) throws Exception {
+    List<Benchmark> benchmarks = makeBenchmarks();
+
+    System.out.format("%-28s %12s %14s %12s %8s %8s%n",
+        "Benchmark", "ops/s", "B/op", "MB/s", "GCs", "GC ms");
+    for (Benchmark benchmark : benchmarks) {
+      if (filter == null || benchmark.getName().contains(filter)) {
+        measure(benchmark);
+      }
+    }
+  }
+
+  private static List<Benchmark> makeBenchmarks() throws IOException {
+    final URL movies = resource("/MovieList.txt");
+    final URL full = resource("/FullGraph.txt");
+    final Graph reduced = Graph.readGraph(resource("/ReducedGraph.txt"));
+    final Graph component = Graph.readGraph(resource("/CompleteComponent.txt"));
+
+    final List<Integer> initStates = new ArrayList<Integer>();
+    for (int x = 0; x < component.size(); x++) {
+      if (component.inDegree(x) > 0 && component.outDegree(x) > 0) {
+        initStates.add(x);
+      }
+    }
+
+    final Random random = new Random(0);
+
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+    benchmarks.add(new Benchmark("GraphMaker.makeGraph") {
+      public long run() throws Exception {
+        return GraphMaker.makeGraph(movies.getPath(), "FullGraph").edgeCount();
+      }
+    });
+
+    benchmarks.add(new Benchmark("Graph.readGraph") {
+      public long run() throws Exception {
+        return Graph.readGraph(full).edgeCount();
+      }
+    });
+
+    File binary = File.createTempFile("BenchmarkGraph", Graph.BINARY_EXTENSION);
+    binary.deleteOnExit();
+    Graph.readGraph(full).writeBinary(binary.getPath());
+    final String binaryname = binary.getPath();
+    benchmarks.add(new Benchmark("Graph.readBinary") {
+      public long run() throws Exception {
+        return Graph.readBinary(binaryname).edgeCount();
+      }
+    });
+
+    benchmarks.add(new Benchmark("GraphUtils.searchForward") {
+      public long run() {
+        return GraphUtils.searchForward(reduced, random.nextInt(reduced.size()))[0];
+      }
+    });
+
+    addBitsetBenchmarks(benchmarks, "Reduced", reduced);
+    addBitsetBenchmarks(benchmarks, "Full", Graph.readGraph(full));
+
+    final TwoWayWalker slow = new SlowWalker(component, initStates, fixedPublisher());
+    slow.setSeed(0);
+    benchmarks.add(new Benchmark("SlowWalker.walkPath") {
+      public long run() {
+        return slow.walkPath().size();
+      }
+    });
+
+    final TwoWayWalker fast = new FastWalker(component, initStates,
+        new ReachabilityMatrix(component), fixedPublisher());
+    fast.setSeed(0);
+    benchmarks.add(new Benchmark("FastWalker.walkPath") {
+      public long run() {
+        return fast.walkPath().size();
+      }
+    });
+
+    // Deterministic walkers only walk each start once, so each operation gets
+    // a fresh walker for the next start
+    final ResultPublisher deterministic = fixedPublisher();
+    benchmarks.add(new Benchmark("DeterministicWalker.walkPath") {
+      private int next = 0;
+
+      public long run() {
+        List<Integer> start = Collections.singletonList(initStates.get(next));
+        next = (next + 1) % initStates.size();
+        return new DeterministicWalker(component, start, deterministic)
+            .walkPath().size();
+      }
+    });
+
+    return benchmarks;
+  }
+
+  /**
+   * A publisher of its own for one walker benchmark, with maxLength fixed at
+   * WALK_CUTOFF
+   * 
+   * Benchmarks call walkPath, which never publishes, so the cutoff stays put
+   * and the work measured doesn't depend on which benchmarks ran before
+   */
+  private static ResultPublisher fixedPublisher() throws IOException {
+    File results = File.createTempFile("BenchmarkResults", ".txt");
+    results.deleteOnExit();
+    return new ResultPublisher(results.getPath(), new AtomicInteger(WALK_CUTOFF));
+  }
+
+  /**
+   * Benchmarks the bitset kernels against doing the same work with copy, or
+   * and cardinality, on reachable sets of a graph
+   */
+  private static void addBitsetBenchmarks(List<Benchmark> benchmarks, String graphname,
+      Graph graph) {
+    Random random = new Random(0);
+    final long[][] sets = new long[64][];
+    for (int x = 0; x < sets.length; x++) {
+      int vertex = random.nextInt(graph.size());
+      sets[x] = (x % 2 == 0) ? GraphUtils.searchForward(graph, vertex)
+          : GraphUtils.searchBackward(graph, vertex);
+    }
+    final long[] scratch = BitsetUtils.create(graph.size());
+    final long[] frontier = BitsetUtils.create(graph.size());
+
+    benchmarks.add(new Benchmark("Bitset.union/" + graphname) {
+      private int next = 0;
+
+      public long run() {
+        next = (next + 1) % sets.length;
+        return BitsetUtils.orCardinality(sets[next], sets[(next + 1) % sets.length]);
+      }
+    });
+
+    benchmarks.add(new Benchmark("Bitset.unionPasses/" + graphname) {
+      private int next = 0;
+
+      public long run() {
+        next = (next + 1) % sets.length;
+        BitsetUtils.copy(sets[next], scratch);
+        BitsetUtils.or(scratch, sets[(next + 1) % sets.length]);
+        return BitsetUtils.cardinality(scratch);
+      }
+    });
+
+    benchmarks.add(new Benchmark("Bitset.advance/" + graphname) {
+      private int next = 0;
+
+      public long run() {
+        next = (next + 1) % sets.length;
+        BitsetUtils.copy(sets[next], frontier);
+        BitsetUtils.copy(sets[(next + 1) % sets.length], scratch);
+        return BitsetUtils.advance(frontier, scratch);
+      }
+    });
+
+    benchmarks.add(new Benchmark("Bitset.advancePasses/" + graphname) {
+      private int next = 0;
+
+      public long run() {
+        next = (next + 1) % sets.length;
+        BitsetUtils.copy(sets[next], frontier);
+        BitsetUtils.copy(sets[(next + 1) % sets.length], scratch);
+        for (int w = 0; w < frontier.length; w++) {
+          frontier[w] &= ~scratch[w];
+        }
+        BitsetUtils.or(scratch, frontier);
+        return BitsetUtils.cardinality(frontier);
+      }
+    });
+  }
+
+  private static void measure(Benchmark benchmark) throws Exception {
+    for (int x = 0; x < WARMUP_ITERATIONS; x++) {
+      iterate(benchmark);
+    }
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    long allocated = allocatedBytes(threads, thread);
+    boolean supported = allocated >= 0;
+    long gcs = gcCount();
+    long gctime = gcTime();
+    long start = System.nanoTime();
+
+    long ops = 0;
+    for (int x = 0; x < MEASURE_ITERATIONS; x++) {
+      ops += iterate(benchmark);
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    if (supported) {
+      allocated = allocatedBytes(threads, thread) - allocated;
+    }
+    gcs = gcCount() - gcs;
+    gctime = gcTime() - gctime;
+
+    if (!supported) {
+      System.out.format("%-28s %12.2f %14s %12s %8d %8d%n", benchmark.getName(),
+          ops / seconds, "n/a", "n/a", gcs, gctime);
+    } else {
+      System.out.format("%-28s %12.2f %14.1f %12.2f %8d %8d%n", benchmark.getName(),
+          ops / seconds, (double) allocated / ops, allocated / seconds / 1e6, gcs, gctime);
+    }
+  }
+
+  /**
+   * Runs a benchmark for one iteration, at least one operation
+   */
+  private static long iterate(Benchmark benchmark) throws Exception {
+    long end = System.nanoTime() + ITERATION_NANOS;
+    long ops = 0;
+    long result = 0;
+    do {
+      result += benchmark.run();
+      ops++;
+    } while (System.nanoTime() < end);
+    sink += result;
+    return ops;
+  }
+
+  /**
+   * Bytes allocated by a thread so far, or -1 if the JVM can't tell us
+   */
+  private static long allocatedBytes(ThreadMXBean threads, long thread) {
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+      if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+        return sun.getThreadAllocatedBytes(thread);
+      }
+    }
+    return -1;
+  }
+
+  private static long gcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+    }
+    return count;
+  }
+
+  private static long gcTime() {
+    long time = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      time += Math.max(0, gc.getCollectionTime());
+    }
+    return time;
+  }
+
+  private static URL resource(String name) {
+    URL url = BenchmarkRunner.class.getResource(name);
+    if (url == null) {
+      throw new RuntimeException(name + " not found");
+    }
+    return url;
+  }
+}
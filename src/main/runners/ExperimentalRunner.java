@@ -7,8 +7,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import main.Main;
 import main.utils.Graph;
@@ -16,6 +14,7 @@ import main.utils.GraphUtils;
 import main.walkers.DeterministicWalker;
 import main.walkers.ExperimentalWalker;
 import main.walkers.FastWalker;
+import main.walkers.ResultPublisher;
 import main.walkers.SlowWalker;
 import main.walkers.Walker;
 
@@ -35,25 +34,22 @@ public class ExperimentalRunner {
 
   public static void runExperimental() throws IOException {
     int threads = Runtime.getRuntime().availableProcessors();
-    Graph component = Graph.readGraph(
-        ExperimentalRunner.class.getResource("/CompleteComponent.txt"));
-    Graph full = Graph.readGraph(
-        ExperimentalRunner.class.getResource("/ReducedGraph.txt"));
+    Graph component = Graph.readGraph(GraphUtils.findGraph("CompleteComponent"));
+    Graph full = Graph.readGraph(GraphUtils.findGraph("ReducedGraph"));
     
     List<Integer> initStates = new ArrayList<Integer>();
     for (int x = 0; x < component.size(); x++) {
-      if (component.getInEdges(x).size() > 0 && component.getOutEdges(x).size() > 0) {
+      if (component.inDegree(x) > 0 && component.outDegree(x) > 0) {
         initStates.add(x);
       }
     }
     
-    AtomicInteger maxLength = new AtomicInteger(INITIAL_CUTOFF);
-    Lock fileLock = new ReentrantLock();
+    ResultPublisher results = new ResultPublisher("results/ExperimentalResults.txt",
+        new AtomicInteger(INITIAL_CUTOFF));
 
     System.out.println("Starting Experimental Run");
     for (int x = 0; x < 1; x++) {
-      Walker walker = new ExperimentalWalker(component, full, initStates, 
-          "results/ExperimentalResults.txt", maxLength, fileLock);
+      Walker walker = new ExperimentalWalker(component, full, initStates, results);
       Thread search = new Thread(walker);
       search.start();
     }
@@ -5,31 +5,162 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
 
 import main.utils.Graph;
+import main.utils.GraphUtils;
 
 /**
  * Creates a graph using a set of input vertices
  * 
+ * There is an edge from a to b if some suffix of the words in a is also a
+ * prefix of the words in b
+ * 
  * @author Peijin Zhang
  */
 public class GraphMaker {
+  // Multiplier for the polynomial hash of word sequences
+  private static final long HASH_BASE = 0x100000001B3L;
+  // Source vertices per fork join task
+  private static final int TASK_VERTICES = 256;
+
   /**
    * Makes a graph from a list of vertex names
+   * 
+   * Each name is split into words once and the words are mapped to ints. Every
+   * name is indexed under the hash of each of its prefixes, so the names that
+   * a suffix overlaps with are found by a single lookup
+   * 
+   * Source vertices are split into ranges that are searched in parallel, each
+   * range produces the edge arrays of its own vertices which are then joined
+   * in vertex order, so the result doesn't depend on scheduling
    */
   public static Graph makeGraph(List<String> vertices, String name) {
-    Graph graph = new Graph(vertices, name);
+    int size = vertices.size();
+    int[][] tokens = tokenize(vertices);
+    PrefixIndex index = new PrefixIndex(tokens);
 
-    for (int x = 0; x < vertices.size(); x++) {
-      for (int y = 0; y < vertices.size(); y++) {
-        if (x != y && hasOverlap(vertices.get(x), vertices.get(y))) {
-          graph.addEdge(x, y);
+    int[][] adjacency = new int[size][];
+    final int vertexCount = size;
+    ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+      @Override
+      protected Scratch initialValue() {
+        return new Scratch(vertexCount);
+      }
+    };
+    EdgeRange all = new EdgeRange(tokens, index, adjacency, scratch, 0, size);
+    if (size > TASK_VERTICES) {
+      GraphUtils.POOL.invoke(all);
+    } else {
+      all.compute();
+    }
+
+    int[] offsets = new int[size + 1];
+    for (int x = 0; x < size; x++) {
+      offsets[x + 1] = offsets[x] + adjacency[x].length;
+    }
+    int[] targets = new int[offsets[size]];
+    for (int x = 0; x < size; x++) {
+      System.arraycopy(adjacency[x], 0, targets, offsets[x], adjacency[x].length);
+    }
+
+    return new Graph(vertices, name, offsets, targets);
+  }
+
+  /**
+   * Finds the out edges of vertices from to to - 1
+   */
+  private static class EdgeRange extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int[][] tokens;
+    private final PrefixIndex index;
+    private final int[][] adjacency;
+    private final ThreadLocal<Scratch> scratch;
+    private final int from;
+    private final int to;
+
+    public EdgeRange(int[][] tokens, PrefixIndex index, int[][] adjacency,
+        ThreadLocal<Scratch> scratch, int from, int to) {
+      this.tokens = tokens;
+      this.index = index;
+      this.adjacency = adjacency;
+      this.scratch = scratch;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > TASK_VERTICES) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new EdgeRange(tokens, index, adjacency, scratch, from, mid),
+            new EdgeRange(tokens, index, adjacency, scratch, mid, to));
+        return;
+      }
+
+      Scratch local = scratch.get();
+      // mark[y] == x if y is already a target of x, -1 between vertices
+      int[] mark = local.mark;
+      int[] targets = local.targets;
+
+      for (int x = from; x < to; x++) {
+        int[] words = tokens[x];
+        long[] hashes = prefixHashes(words);
+        int count = 0;
+
+        // power is HASH_BASE to the length, to shift the prefix hash out of the suffix
+        long power = 1;
+        for (int length = 1; length <= words.length; length++) {
+          int start = words.length - length;
+          power *= HASH_BASE;
+          long hash = hashes[words.length] - hashes[start] * power;
+
+          int bucket = index.find(length, hash);
+          if (bucket < 0) {
+            continue;
+          }
+          for (int b = index.start(bucket); b < index.end(bucket); b++) {
+            int y = index.get(b);
+            if (y != x && mark[y] != x && overlaps(words, start, tokens[y])) {
+              if (count == targets.length) {
+                targets = Arrays.copyOf(targets, count * 2);
+                local.targets = targets;
+              }
+              mark[y] = x;
+              targets[count++] = y;
+            }
+          }
         }
+
+        for (int t = 0; t < count; t++) {
+          mark[targets[t]] = -1;
+        }
+        Arrays.sort(targets, 0, count);
+        adjacency[x] = Arrays.copyOf(targets, count);
       }
     }
+  }
 
-    return graph;
+  /**
+   * Buffers reused by every range a worker thread searches
+   * 
+   * targets grows to the largest out degree seen, and mark is put back to all
+   * -1 after each vertex by clearing only that vertex's targets
+   */
+  private static class Scratch {
+    private final int[] mark;
+    private int[] targets;
+
+    public Scratch(int size) {
+      this.mark = new int[size];
+      Arrays.fill(mark, -1);
+      this.targets = new int[16];
+    }
   }
 
   /**
@@ -48,23 +179,129 @@ public class GraphMaker {
     return makeGraph(vertices, name);
   }
 
-  private static boolean hasOverlap(String a, String b) {
-    String[] atoks = a.split(" ");
-    String[] btoks = b.split(" ");
-    // Standard overlap search
-    for (int x = 0; x < Math.min(atoks.length, btoks.length); x++) {
-      boolean overlap = true;
-      int start = atoks.length - 1 - x;
-      for (int y = 0; y <= x; y++) {
-        if (!atoks[start + y].equals(btoks[y])) {
-          overlap = false;
-          break;
+  /**
+   * Splits each name into words, numbering every distinct word
+   */
+  private static int[][] tokenize(List<String> vertices) {
+    Map<String, Integer> ids = new HashMap<String, Integer>();
+    int[][] tokens = new int[vertices.size()][];
+    for (int x = 0; x < vertices.size(); x++) {
+      String[] words = vertices.get(x).split(" ");
+      tokens[x] = new int[words.length];
+      for (int y = 0; y < words.length; y++) {
+        Integer id = ids.get(words[y]);
+        if (id == null) {
+          id = ids.size();
+          ids.put(words[y], id);
+        }
+        tokens[x][y] = id;
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * hashes[i] is the hash of the first i words
+   */
+  private static long[] prefixHashes(int[] words) {
+    long[] hashes = new long[words.length + 1];
+    for (int x = 0; x < words.length; x++) {
+      hashes[x + 1] = hashes[x] * HASH_BASE + words[x] + 1;
+    }
+    return hashes;
+  }
+
+  /**
+   * Checks that the words of a from index from onwards start off b
+   */
+  private static boolean overlaps(int[] a, int from, int[] b) {
+    int length = a.length - from;
+    if (b.length < length) {
+      return false;
+    }
+    for (int x = 0; x < length; x++) {
+      if (a[from + x] != b[x]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Names grouped by the length and hash of each of their prefixes
+   * 
+   * Groups are stored back to back in one array, in increasing name order
+   */
+  private static class PrefixIndex {
+    // Bucket numbers by prefix hash, for each prefix length
+    private final List<Map<Long, Integer>> buckets;
+    private final int[] offsets;
+    private final int[] names;
+
+    public PrefixIndex(int[][] tokens) {
+      int longest = 0;
+      int total = 0;
+      for (int[] words : tokens) {
+        longest = Math.max(longest, words.length);
+        total += words.length;
+      }
+
+      // Number the buckets and count their sizes
+      buckets = new ArrayList<Map<Long, Integer>>(longest + 1);
+      for (int length = 0; length <= longest; length++) {
+        buckets.add(new HashMap<Long, Integer>());
+      }
+      int[] counts = new int[total + 1];
+      int count = 0;
+      for (int[] words : tokens) {
+        long[] hashes = prefixHashes(words);
+        for (int length = 1; length <= words.length; length++) {
+          Integer bucket = buckets.get(length).get(hashes[length]);
+          if (bucket == null) {
+            bucket = count++;
+            buckets.get(length).put(hashes[length], bucket);
+          }
+          counts[bucket + 1]++;
         }
       }
-      if (overlap) {
-        return true;
+
+      offsets = new int[count + 1];
+      for (int b = 0; b < count; b++) {
+        offsets[b + 1] = offsets[b] + counts[b + 1];
       }
+
+      names = new int[total];
+      int[] fill = new int[count];
+      for (int x = 0; x < tokens.length; x++) {
+        long[] hashes = prefixHashes(tokens[x]);
+        for (int length = 1; length <= tokens[x].length; length++) {
+          int bucket = buckets.get(length).get(hashes[length]);
+          names[offsets[bucket] + fill[bucket]++] = x;
+        }
+      }
+    }
+
+    /**
+     * Returns the bucket of names with a prefix of this length and hash, or -1
+     */
+    public int find(int length, long hash) {
+      if (length >= buckets.size()) {
+        return -1;
+      }
+      Integer bucket = buckets.get(length).get(hash);
+      return (bucket == null) ? -1 : bucket;
+    }
+
+    public int start(int bucket) {
+      return offsets[bucket];
+    }
+
+    public int end(int bucket) {
+      return offsets[bucket + 1];
+    }
+
+    public int get(int index) {
+      return names[index];
     }
-    return false;
   }
 }
@@ -0,0 +1,265 @@
+package main.runners;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import main.utils.BitsetUtils;
+import main.utils.Graph;
+import main.utils.GraphUtils;
+import main.utils.Reachability;
+
+/**
+ * Removes vertices that can't be on a long enough path by running a list of
+ * pruning rules until none of them removes anything
+ *
+ * Every vertex starts on a worklist. A vertex is taken off the worklist and
+ * given to each rule in order until one removes it. A rule that removes a
+ * vertex puts back every vertex whose result may have changed, so only
+ * vertices near a removal are evaluated again.
+ *
+ * All rules only get more likely to remove a vertex as other vertices are
+ * removed, so the result doesn't depend on the order of the worklist or rules.
+ *
+ * @author Peijin Zhang
+ */
+public class GraphPruner {
+  private final Graph graph;
+  private final Rule[] rules;
+
+  private final long[] removed;
+  private int removedCount;
+
+  private final int[] worklist;
+  private final long[] queued;
+  private int head;
+  private int count;
+
+  public GraphPruner(Graph graph, Rule... rules) {
+    this.graph = graph;
+    this.rules = rules;
+    this.removed = BitsetUtils.create(graph.size());
+    this.worklist = new int[graph.size()];
+    this.queued = BitsetUtils.create(graph.size());
+  }
+
+  /**
+   * Runs the rules until a fixpoint and returns the graph of remaining vertices
+   */
+  public Graph prune(String name) {
+    for (Rule rule : rules) {
+      rule.reset();
+    }
+    for (int x = 0; x < graph.size(); x++) {
+      enqueue(x);
+    }
+
+    while (count > 0) {
+      int vertex = worklist[head];
+      head = (head + 1 == worklist.length) ? 0 : head + 1;
+      count--;
+      BitsetUtils.clear(queued, vertex);
+
+      for (Rule rule : rules) {
+        long start = System.nanoTime();
+        rule.evaluations++;
+        boolean remove = rule.prune(this, vertex);
+        if (remove) {
+          rule.removals++;
+        }
+        rule.nanos += System.nanoTime() - start;
+
+        if (remove) {
+          break;
+        }
+      }
+    }
+
+    long[] keep = BitsetUtils.create(graph.size());
+    BitsetUtils.fill(keep, graph.size());
+    for (int w = 0; w < keep.length; w++) {
+      keep[w] &= ~removed[w];
+    }
+    return graph.subgraph(BitsetUtils.toArray(keep), name);
+  }
+
+  /**
+   * Prints how many vertices each rule looked at and removed, and how long it took
+   */
+  public void printSummary() {
+    System.out.println(String.format("%-10s %12s %10s %10s",
+        "Rule", "Evaluations", "Removed", "Time (ms)"));
+    for (Rule rule : rules) {
+      System.out.println(String.format("%-10s %12d %10d %10d", rule.getName(),
+          rule.evaluations, rule.removals, rule.nanos / 1000000));
+    }
+    System.out.println("Removed " + removedCount + " of " + graph.size() + " vertices");
+  }
+
+  public Graph getGraph() {
+    return graph;
+  }
+
+  public boolean isRemoved(int vertex) {
+    return BitsetUtils.get(removed, vertex);
+  }
+
+  /**
+   * Removes a vertex. Rules call this before putting back affected vertices
+   */
+  private void remove(int vertex) {
+    BitsetUtils.set(removed, vertex);
+    removedCount++;
+  }
+
+  /**
+   * Puts a vertex back on the worklist unless it is removed or already there
+   */
+  private void enqueue(int vertex) {
+    if (BitsetUtils.get(removed, vertex) || BitsetUtils.get(queued, vertex)) {
+      return;
+    }
+    BitsetUtils.set(queued, vertex);
+    worklist[(head + count) % worklist.length] = vertex;
+    count++;
+  }
+
+  /**
+   * Puts back every vertex in a set that isn't removed
+   */
+  private void enqueueAll(long[] vertices) {
+    for (int w = 0; w < vertices.length; w++) {
+      long word = vertices[w] & ~removed[w];
+      while (word != 0) {
+        enqueue((w << 6) + Long.numberOfTrailingZeros(word));
+        word &= word - 1;
+      }
+    }
+  }
+
+  /**
+   * Parses a comma separated list of rule names
+   */
+  public static Rule[] parseRules(String names) {
+    List<Rule> rules = new ArrayList<Rule>();
+    for (String name : names.split(",")) {
+      name = name.trim();
+      if (name.equalsIgnoreCase(IsolatedRule.NAME)) {
+        rules.add(new IsolatedRule());
+      } else if (name.equalsIgnoreCase(ReachRule.NAME)) {
+        rules.add(new ReachRule(GraphUtils.CANDIDATE_CUTOFF));
+      } else {
+        throw new IllegalArgumentException("Unknown pruning rule " + name);
+      }
+    }
+    return rules.toArray(new Rule[rules.size()]);
+  }
+
+  /**
+   * Default rules, cheapest first
+   */
+  public static Rule[] defaultRules() {
+    return new Rule[] {new IsolatedRule(), new ReachRule(GraphUtils.CANDIDATE_CUTOFF)};
+  }
+
+  /**
+   * A test for whether a vertex can be removed, given the vertices removed so far
+   */
+  public static abstract class Rule {
+    private final String name;
+    private long evaluations;
+    private long removals;
+    private long nanos;
+
+    protected Rule(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    private void reset() {
+      evaluations = 0;
+      removals = 0;
+      nanos = 0;
+    }
+
+    /**
+     * Returns true and removes the vertex if it can't be on a long enough path,
+     * putting back every vertex that might now be removable too
+     */
+    protected abstract boolean prune(GraphPruner pruner, int vertex);
+  }
+
+  /**
+   * Removes vertices with no remaining edges in or out
+   */
+  public static class IsolatedRule extends Rule {
+    public static final String NAME = "isolated";
+
+    public IsolatedRule() {
+      super(NAME);
+    }
+
+    @Override
+    protected boolean prune(GraphPruner pruner, int vertex) {
+      Graph graph = pruner.getGraph();
+      for (int y = 0; y < graph.outDegree(vertex); y++) {
+        if (!pruner.isRemoved(graph.outEdge(vertex, y))) {
+          return false;
+        }
+      }
+      for (int y = 0; y < graph.inDegree(vertex); y++) {
+        if (!pruner.isRemoved(graph.inEdge(vertex, y))) {
+          return false;
+        }
+      }
+
+      // No neighbours left to put back
+      pruner.remove(vertex);
+      return true;
+    }
+  }
+
+  /**
+   * Removes vertices that reach fewer than cutoff vertices searching forwards
+   * and backwards, since any path through a vertex stays inside that set
+   */
+  public static class ReachRule extends Rule {
+    public static final String NAME = "reach";
+
+    private final int cutoff;
+    private final Reachability reachability;
+    private long[] forward;
+    private long[] backward;
+
+    public ReachRule(int cutoff) {
+      super(NAME);
+      this.cutoff = cutoff;
+      this.reachability = new Reachability();
+    }
+
+    @Override
+    protected boolean prune(GraphPruner pruner, int vertex) {
+      Graph graph = pruner.getGraph();
+      if (forward == null || forward.length != BitsetUtils.words(graph.size())) {
+        forward = BitsetUtils.create(graph.size());
+        backward = BitsetUtils.create(graph.size());
+      }
+
+      // Both searches start from the removed vertices, so subtract them from the count
+      reachability.searchForward(graph, vertex, pruner.removed, forward);
+      reachability.searchBackward(graph, vertex, pruner.removed, backward);
+      int size = BitsetUtils.orCardinality(forward, backward) - pruner.removedCount;
+      if (size >= cutoff) {
+        return false;
+      }
+
+      // Only vertices that reached this one or were reached from it can lose reach
+      pruner.remove(vertex);
+      BitsetUtils.or(forward, backward);
+      pruner.enqueueAll(forward);
+      return true;
+    }
+  }
+}
@@ -1,12 +1,12 @@
 package main.runners;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import main.utils.BitsetUtils;
 import main.utils.Graph;
 import main.utils.GraphUtils;
+import main.utils.ReachabilityMatrix;
 
 /**
  * Tries to reduce a graph by removing nodes that can't be part of the longest
@@ -26,110 +26,20 @@ public class GraphReducer {
   }
 
   /**
-   * First pass reduction
-   * 
-   * Searches forwards and backwards from each node If < 315 points are reached
-   * this way, kill node
+   * Reduces a graph by pruning vertices that can't be on a path of at least
+   * CANDIDATE_CUTOFF vertices, see GraphPruner
+   *
+   * Prints the removal counts and timings of each rule
    */
-  @SuppressWarnings("unused")
-  private static Graph firstPass(Graph graph) {
-
-    boolean removed = true;
-    while (removed) {
-      removed = false;
-
-      List<String> vertices = graph.getVertices();
-
-      Set<String> remove = new HashSet<String>();
-      for (int x = 0; x < graph.size(); x++) {
-        Set<Integer> reached = GraphUtils.searchForward(graph, x);
-        reached.addAll(GraphUtils.searchBackward(graph, x));
-
-        if (reached.size() < GraphUtils.CANDIDATE_CUTOFF) {
-          remove.add(vertices.get(x));
-        }
-      }
-
-      System.out.println(remove.size());
-      if (remove.size() > 0) {
-        removed = true;
-        vertices.removeAll(remove);
-
-        graph = GraphMaker.makeGraph(vertices, TEMP_NAME);
-      }
-    }
+  public static Graph pruneGraph(Graph graph, GraphPruner.Rule... rules) {
+    String newname = "Reduced" + graph.getName();
+    GraphPruner pruner = new GraphPruner(graph, rules);
+    graph = pruner.prune(newname);
+    pruner.printSummary();
 
     return graph;
   }
 
-  /**
-   * Second pass reduction Finds all vertices going into and out from a vertex
-   * 
-   * Search forwards from all out vertices Search backwards from all in vertices
-   * 
-   * If all pairs of reachable points from an in vertex and out vertex are less
-   * than 315, kill node
-   * 
-   * DEPRECATED: This does no better than the first pass algorithm
-   */
-  @SuppressWarnings({ "unchecked", "unused" })
-  private static Graph secondPass(Graph graph) {
-    boolean removed = true;
-    while (removed) {
-      removed = false;
-
-      List<String> vertices = graph.getVertices();
-
-      Set<String> remove = new HashSet<String>();
-      for (int x = 0; x < graph.size(); x++) {
-        List<Integer> outedges = graph.getOutEdges(x);
-        Set<Integer>[] outreached = new Set[outedges.size() + 1];
-
-        for (int y = 0; y < outedges.size(); y++) {
-          outreached[y] = GraphUtils.searchForward(graph, outedges.get(y));
-        }
-        outreached[outedges.size()] = new HashSet<Integer>();
-
-        List<Integer> inedges = graph.getInEdges(x);
-        Set<Integer>[] inreached = new Set[inedges.size() + 1];
-        for (int y = 0; y < inedges.size(); y++) {
-          inreached[y] = GraphUtils.searchBackward(graph, inedges.get(y));
-        }
-        inreached[inedges.size()] = new HashSet<Integer>();
-
-        boolean keep = false;
-        outer: {
-          for (int i = 0; i < outreached.length; i++) {
-            for (int j = 0; j < inreached.length; j++) {
-              Set<Integer> reached = new HashSet<Integer>(outreached[i]);
-              reached.addAll(inreached[j]);
-              reached.add(x);
-
-              if (reached.size() >= GraphUtils.CANDIDATE_CUTOFF) {
-                keep = true;
-                break outer;
-              }
-            }
-          }
-        }
-
-        if (!keep) {
-          remove.add(vertices.get(x));
-        }
-      }
-
-      System.out.println(remove.size());
-      if (remove.size() > 0) {
-        removed = true;
-        vertices.removeAll(remove);
-
-        graph = GraphMaker.makeGraph(vertices, TEMP_NAME);
-      }
-    }
-
-    return graph;
-  }
-  
   /**
    * "Reduces" a graph by taking the intersection of all of its reachability sets
    * 
@@ -137,27 +47,64 @@ public class GraphReducer {
    * for longest paths in. From there, we can extend this "reduced" graph into the
    * real reduced graph by just extending the ends into the reduced set until we can't
    * move anymore.
+   * 
+   * Every vertex in a strongly connected component has the same reachability sets,
+   * so the sets are computed once per component in parallel and intersected word by
+   * word. The intersection stops as soon as it becomes empty.
    */
   private static Graph thirdPass(Graph graph) {
-    List<String> vertices = graph.getVertices();
-    
-    Set<Integer> intersect = new HashSet<Integer>();
-    for (int x = 0; x < vertices.size(); x++) {
-      intersect.add(x);
-    }
+    ReachabilityMatrix reachable = new ReachabilityMatrix(graph, GraphUtils.POOL);
+    int components = reachable.getCondensation().componentCount();
+
+    long[] intersect = GraphUtils.POOL.invoke(
+        new Intersection(reachable, 0, components, new AtomicBoolean(false)));
     
-    for (int x = 0; x < vertices.size(); x++) {
-      Set<Integer> reachable = GraphUtils.searchForward(graph, x);
-      reachable.addAll(GraphUtils.searchBackward(graph, x));
-      
-      intersect.retainAll(reachable);
+    return graph.subgraph(BitsetUtils.toArray(intersect), TEMP_NAME);
+  }
+
+  /**
+   * Intersects the forward and backward reachability union of components from
+   * to to - 1
+   */
+  private static class Intersection extends RecursiveTask<long[]> {
+    private static final long serialVersionUID = 1L;
+    // Components per fork join task
+    private static final int TASK_COMPONENTS = 64;
+
+    private final ReachabilityMatrix reachable;
+    private final int from;
+    private final int to;
+    // Set once any part of the intersection is empty, which makes all of it empty
+    private final AtomicBoolean empty;
+
+    public Intersection(ReachabilityMatrix reachable, int from, int to, AtomicBoolean empty) {
+      this.reachable = reachable;
+      this.from = from;
+      this.to = to;
+      this.empty = empty;
     }
-    
-    List<String> newvertices = new ArrayList<String>(intersect.size());
-    for (int vertex : intersect) {
-      newvertices.add(vertices.get(vertex));
+
+    @Override
+    protected long[] compute() {
+      if (to - from > TASK_COMPONENTS) {
+        int mid = (from + to) >>> 1;
+        Intersection left = new Intersection(reachable, from, mid, empty);
+        left.fork();
+        long[] intersect = new Intersection(reachable, mid, to, empty).compute();
+        BitsetUtils.and(intersect, left.join());
+        return intersect;
+      }
+
+      int size = reachable.getCondensation().getGraph().size();
+      long[] intersect = BitsetUtils.create(size);
+      BitsetUtils.fill(intersect, size);
+      for (int c = from; c < to && !empty.get(); c++) {
+        if (!BitsetUtils.andUnion(intersect, reachable.getComponentForward(c),
+            reachable.getComponentBackward(c))) {
+          empty.set(true);
+        }
+      }
+      return intersect;
     }
-    
-    return GraphMaker.makeGraph(newvertices, TEMP_NAME);
   }
 }
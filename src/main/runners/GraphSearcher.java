@@ -1,44 +1,112 @@
 package main.runners;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 import main.utils.Graph;
-import main.utils.GraphUtils;
+import main.utils.LengthBound;
+import main.utils.ReachabilityCache;
+import main.utils.ReachabilityMatrix;
 import main.walkers.DeterministicWalker;
+import main.walkers.ExactWalker;
+import main.walkers.ExperimentalWalker;
 import main.walkers.FastWalker;
+import main.walkers.IslandWalker;
+import main.walkers.Islands;
+import main.walkers.ParallelExactWalker;
+import main.walkers.ResultPublisher;
 import main.walkers.SlowWalker;
 import main.walkers.Walker;
+import main.walkers.WalkerType;
 
 /**
  * Searches for the longest path in a given graph
  * 
  * Writes all intermediate results to file
  * 
- * Runs one thread per core in random walk unless specified
+ * Runs one walker per core on a thread pool unless specified. The search ends
+ * when the walkers run out of work, the time or walk budget runs out, or the
+ * JVM is shut down, and then prints a summary.
+ * 
+ * The state of the search is checkpointed to [graph]Checkpoint.txt every
+ * minute and when it ends, and a resumed search carries on from there.
+ * 
+ * Walker metrics are logged to [graph]Metrics.csv every few seconds and
+ * exposed as an MBean while the search runs, see SearchMetrics.
  * 
  * @author Peijin Zhang
  */
-@SuppressWarnings("unused")
 public class GraphSearcher {
   // Start search at 250
   private static final int INITIAL_CUTOFF = 250;
+  // Seconds between checkpoints unless specified
+  private static final long CHECKPOINT_INTERVAL = 60;
+  // Seconds a checkpoint waits for walkers to record their state
+  private static final long SNAPSHOT_WAIT = 5;
+  // Seconds between metrics rows unless specified
+  private static final long METRICS_INTERVAL = 10;
+  // Megabytes of reachability cache shared by slow walkers unless specified
+  private static final int CACHE_SIZE = 64;
+  // Only searches from paths of at most this many vertices are cached
+  private static final int CACHE_DEPTH = 8;
 
   private final String filename;
+  private final String frontierFile;
+  private final String checkpointFile;
+  private final String metricsFile;
   private final Graph graph;
   private final int threads;
 
+  private WalkerType walkerType;
+  // Larger graph for the experimental walker to extend paths into
+  private Graph extension;
+  // Zero if unbounded
+  private long timeLimit;
+  private long walkLimit;
+  // Null to seed each walker from the clock
+  private Long seed;
+  private boolean resume;
+  private long checkpointInterval;
+  private long metricsInterval;
+  // Zero to not cache
+  private int cacheSize;
+
   public GraphSearcher(Graph graph, String output, int threads) {
     this.graph = graph;
     this.filename = output + File.separator + graph.getName() + "Results.txt";
+    this.frontierFile = output + File.separator + graph.getName() + "Frontier.txt";
+    this.checkpointFile = output + File.separator + graph.getName() + "Checkpoint.txt";
+    this.metricsFile = output + File.separator + graph.getName() + "Metrics.csv";
     this.threads = threads;
+
+    this.walkerType = WalkerType.SLOW;
+    this.extension = null;
+    this.timeLimit = 0;
+    this.walkLimit = 0;
+    this.seed = null;
+    this.resume = false;
+    this.checkpointInterval = CHECKPOINT_INTERVAL;
+    this.metricsInterval = METRICS_INTERVAL;
+    this.cacheSize = CACHE_SIZE;
   }
 
   public GraphSearcher(Graph graph, String output) {
@@ -54,43 +122,422 @@ public class GraphSearcher {
     this(Graph.readGraph(url), output);
   }
 
-  public void searchGraph() {
+  public void setWalkerType(WalkerType walkerType) {
+    this.walkerType = walkerType;
+  }
+
+  public void setExtension(Graph extension) {
+    this.extension = extension;
+  }
+
+  /**
+   * Stops the search after the given number of seconds
+   */
+  public void setTimeLimit(long seconds) {
+    this.timeLimit = seconds;
+  }
+
+  /**
+   * Stops the search after the given number of walks across all walkers
+   */
+  public void setWalkLimit(long walks) {
+    this.walkLimit = walks;
+  }
+
+  /**
+   * Walker x is seeded with seed + x
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Carries on from the last checkpoint and the longest path in the results file
+   */
+  public void setResume(boolean resume) {
+    this.resume = resume;
+  }
+
+  /**
+   * Writes a checkpoint every given number of seconds
+   */
+  public void setCheckpointInterval(long seconds) {
+    this.checkpointInterval = seconds;
+  }
+
+  /**
+   * Logs metrics every given number of seconds
+   */
+  public void setMetricsInterval(long seconds) {
+    this.metricsInterval = seconds;
+  }
+
+  /**
+   * Megabytes of reachability cache shared by slow walkers, zero for none
+   */
+  public void setCacheSize(int megabytes) {
+    this.cacheSize = megabytes;
+  }
+
+  public void searchGraph() throws InterruptedException, IOException {
     // Do some pre-processing to save each subthread the work
-    
+    ReachabilityMatrix reachable = null;
+    LengthBound lengthBound;
+    if (walkerType == WalkerType.FAST) {
+      reachable = new ReachabilityMatrix(graph);
+      lengthBound = new LengthBound(reachable.getCondensation());
+    } else {
+      lengthBound = new LengthBound(graph);
+    }
+
+    // Only start on vertices with a path through them longer than the cutoff.
+    // Experimental walks are extended afterwards, so they only need to get close
+    int startCutoff = (walkerType == WalkerType.EXPERIMENTAL)
+        ? INITIAL_CUTOFF - ExperimentalWalker.EXTENSION_CUTOFF : INITIAL_CUTOFF;
     List<Integer> initStates = new ArrayList<Integer>();
     for (int x = 0; x < graph.size(); x++) {
-      if (graph.getInEdges(x).size() > 0 && graph.getOutEdges(x).size() > 0) {
+      if (graph.inDegree(x) > 0 && graph.outDegree(x) > 0
+          && lengthBound.through(x) > startCutoff) {
         initStates.add(x);
       }
     }
+    if (initStates.isEmpty()) {
+      System.out.format("No path in %s can be longer than %d, longest is at most %d%n",
+          graph.getName(), startCutoff, lengthBound.getMax());
+      return;
+    }
+    if (walkerType == WalkerType.EXPERIMENTAL && extension == null) {
+      throw new IllegalArgumentException("Experimental walker needs a graph to extend into");
+    }
+
+    Properties checkpoint = null;
+    int initial = INITIAL_CUTOFF;
+    if (resume) {
+      checkpoint = readCheckpoint();
+      initial = Math.max(initial, longestResult());
+      if (checkpoint != null) {
+        initial = Math.max(initial, Integer.parseInt(checkpoint.getProperty("maxLength")));
+      }
+      System.out.format("Resuming from length %d%n", initial);
+    }
+
+    final AtomicInteger maxLength = new AtomicInteger(initial);
+    final ResultPublisher results = new ResultPublisher(filename, maxLength);
+    AtomicLong walkBudget = (walkLimit > 0) ? new AtomicLong(walkLimit) : null;
 
-    // Uncomment if using FastWalker
-//    Set<Integer>[] fReachable = new Set[graph.size()];
-//    Set<Integer>[] bReachable = new Set[graph.size()];
-//    
-//    for (int x = 0; x < graph.size(); x++) {
-//      fReachable[x] = GraphUtils.searchForward(graph, x);
-//      bReachable[x] = GraphUtils.searchBackward(graph, x);
-//    }
+    // Exact searches run as one walker, the exhaustive one uses all threads itself
+    int walkerCount = (walkerType == WalkerType.EXACT || walkerType == WalkerType.EXHAUSTIVE)
+        ? 1 : threads;
 
-    AtomicInteger maxLength = new AtomicInteger(INITIAL_CUTOFF);
-    Lock fileLock = new ReentrantLock();
+    ReachabilityCache cache = (cacheSize > 0)
+        ? new ReachabilityCache(graph, cacheSize, CACHE_DEPTH) : null;
+    // Island walkers trade paths around a ring
+    Islands islands = (walkerType == WalkerType.ISLAND) ? new Islands(walkerCount) : null;
 
-    System.out.println("Started Searching");
-    for (int x = 0; x < threads; x++) {
-      // Edit here to change walker type
+    final List<Walker> walkers = new ArrayList<Walker>(walkerCount);
+    for (int x = 0; x < walkerCount; x++) {
       Walker walker;
-      
-      walker = new SlowWalker(graph, initStates, filename, maxLength, fileLock);
-      
-//      walker = new DeterministicWalker(graph, initStates, filename, maxLength, fileLock);    
+      switch (walkerType) {
+        case FAST:
+          walker = new FastWalker(graph, initStates, reachable, results);
+          break;
+        case DETERMINISTIC:
+          walker = new DeterministicWalker(graph, initStates, results);
+          break;
+        case EXPERIMENTAL:
+          walker = new ExperimentalWalker(graph, extension, initStates, results);
+          break;
+        case EXACT:
+          walker = new ExactWalker(graph, lengthBound, frontierFile, results);
+          break;
+        case EXHAUSTIVE:
+          walker = new ParallelExactWalker(graph, lengthBound, threads, frontierFile, results);
+          break;
+        case ISLAND:
+          IslandWalker islandWalker = new IslandWalker(graph, initStates, results);
+          islandWalker.setIslands(islands, x);
+          walker = islandWalker;
+          break;
+        default:
+          walker = new SlowWalker(graph, initStates, results);
+          break;
+      }
+      if (seed != null) {
+        walker.setSeed(seed + x);
+      }
+      walker.setLengthBound(lengthBound);
+      walker.setWalkBudget(walkBudget);
+      if (cache != null && walker instanceof SlowWalker) {
+        ((SlowWalker) walker).setCache(cache);
+      }
+      walkers.add(walker);
+    }
 
-//    walker = new FastWalker(graph, initStates, fReachable, bReachable,
-//    filename, maxLength, fileLock);
-      
-      Thread search = new Thread(walker);
-      search.start();
+    if (checkpoint != null) {
+      if (walkerType.getName().equals(checkpoint.getProperty("walker"))) {
+        for (int x = 0; x < walkers.size(); x++) {
+          Properties state = getWalkerState(checkpoint, x);
+          if (!state.isEmpty()) {
+            walkers.get(x).loadState(state);
+          }
+        }
+      } else {
+        System.out.format("Checkpoint is from %s walkers, only resuming its length%n",
+            checkpoint.getProperty("walker"));
+      }
+    }
+
+    // On shutdown stop the walkers and give the search a chance to finish cleanly
+    final CountDownLatch finished = new CountDownLatch(1);
+    Thread shutdown = new Thread() {
+      public void run() {
+        stopAll(walkers);
+        try {
+          finished.await(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    Runtime.getRuntime().addShutdownHook(shutdown);
+
+    System.out.format("Started Searching with %d %s walkers%n", walkerCount,
+        walkerType.getName());
+    long start = System.nanoTime();
+
+    final SearchMetrics metrics = new SearchMetrics(graph.getName(), walkerType.getName(),
+        walkers, maxLength, graph.size());
+    metrics.register();
+
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        checkpoint(walkers, results);
+      }
+    }, checkpointInterval, checkpointInterval, TimeUnit.SECONDS);
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        logMetrics(metrics);
+      }
+    }, metricsInterval, metricsInterval, TimeUnit.SECONDS);
+
+    ExecutorService executor = Executors.newFixedThreadPool(walkerCount);
+    List<Future<?>> futures = new ArrayList<Future<?>>(walkerCount);
+    for (Walker walker : walkers) {
+      futures.add(executor.submit(walker));
+    }
+    executor.shutdown();
+
+    try {
+      if (timeLimit > 0) {
+        if (!executor.awaitTermination(timeLimit, TimeUnit.SECONDS)) {
+          stopAll(walkers);
+        }
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      stopAll(walkers);
+      throw new RuntimeException("Walker failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
+      scheduler.shutdownNow();
+      scheduler.awaitTermination(1, TimeUnit.MINUTES);
+      results.close();
+      logMetrics(metrics);
+      metrics.unregister();
+      // Walkers record their final state as they stop
+      try {
+        writeCheckpoint(walkers, results.getWrittenLength());
+      } catch (IOException e) {
+        System.err.println("Error writing to " + checkpointFile);
+        e.printStackTrace();
+      }
+      printSummary(walkers, metrics, cache, lengthBound.getMax(), System.nanoTime() - start);
+      finished.countDown();
+    }
+
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdown);
+    } catch (IllegalStateException e) {
+      // Already shutting down
+    }
+  }
+
+  /**
+   * Asks every walker for its state and writes the checkpoint once they have
+   * answered or a few seconds have passed
+   */
+  private void checkpoint(List<Walker> walkers, ResultPublisher results) {
+    List<Properties> previous = new ArrayList<Properties>(walkers.size());
+    for (Walker walker : walkers) {
+      previous.add(walker.getSnapshot());
+      walker.requestSnapshot();
+    }
+
+    try {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SNAPSHOT_WAIT);
+      for (int x = 0; x < walkers.size(); x++) {
+        while (walkers.get(x).getSnapshot() == previous.get(x) && System.nanoTime() < deadline) {
+          Thread.sleep(10);
+        }
+      }
+      // Only lengths already in the results file, which a resume reads back
+      writeCheckpoint(walkers, results.getWrittenLength());
+    } catch (InterruptedException e) {
+      // Search is over, the final checkpoint is written after the walkers stop
+    } catch (IOException e) {
+      System.err.println("Error writing to " + checkpointFile);
+      e.printStackTrace();
+    }
+  }
+
+  private void logMetrics(SearchMetrics metrics) {
+    try {
+      metrics.log(metricsFile);
+    } catch (IOException e) {
+      System.err.println("Error writing to " + metricsFile);
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Writes the length so far and the last state of each walker
+   * 
+   * The checkpoint is written to a temporary file which is then renamed over the
+   * old one, so a kill at any point leaves a whole checkpoint behind.
+   */
+  private void writeCheckpoint(List<Walker> walkers, int maxLength) throws IOException {
+    Properties checkpoint = new Properties();
+    checkpoint.setProperty("graph", graph.getName());
+    checkpoint.setProperty("walker", walkerType.getName());
+    checkpoint.setProperty("maxLength", Integer.toString(maxLength));
+    for (int x = 0; x < walkers.size(); x++) {
+      Properties state = walkers.get(x).getSnapshot();
+      if (state != null) {
+        for (String key : state.stringPropertyNames()) {
+          checkpoint.setProperty("walker." + x + "." + key, state.getProperty(key));
+        }
+      }
+    }
+
+    File file = new File(checkpointFile);
+    File temp = new File(checkpointFile + ".tmp");
+    if (file.getParentFile() != null) {
+      file.getParentFile().mkdirs();
+    }
+    FileOutputStream out = new FileOutputStream(temp);
+    try {
+      checkpoint.store(out, "Search checkpoint");
+      out.getFD().sync();
+    } finally {
+      out.close();
+    }
+    Files.move(temp.toPath(), file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads the last checkpoint, or returns null if there is none
+   */
+  private Properties readCheckpoint() throws IOException {
+    File file = new File(checkpointFile);
+    if (!file.exists()) {
+      return null;
+    }
+
+    Properties checkpoint = new Properties();
+    FileInputStream in = new FileInputStream(file);
+    try {
+      checkpoint.load(in);
+    } finally {
+      in.close();
+    }
+    if (!graph.getName().equals(checkpoint.getProperty("graph"))) {
+      throw new IllegalArgumentException("Checkpoint is for graph " 
+          + checkpoint.getProperty("graph"));
+    }
+    return checkpoint;
+  }
+
+  /**
+   * The state of walker x in a checkpoint, empty if it has none
+   */
+  private static Properties getWalkerState(Properties checkpoint, int x) {
+    String prefix = "walker." + x + ".";
+    Properties state = new Properties();
+    for (String key : checkpoint.stringPropertyNames()) {
+      if (key.startsWith(prefix)) {
+        state.setProperty(key.substring(prefix.length()), checkpoint.getProperty(key));
+      }
+    }
+    return state;
+  }
+
+  /**
+   * Length of the longest path in the results file, 0 if there is none
+   */
+  private int longestResult() throws IOException {
+    if (!new File(filename).exists()) {
+      return 0;
+    }
+    // Only the lengths are read, since experimental walkers write paths on the
+    // graph they extend into rather than this one
+    int longest = 0;
+    BufferedReader br = new BufferedReader(new FileReader(filename));
+    try {
+      String header;
+      while ((header = br.readLine()) != null) {
+        if (br.readLine() == null) {
+          // Cut off while being written
+          break;
+        }
+        String length = header.substring(header.indexOf(':') + 1).trim();
+        longest = Math.max(longest, Integer.parseInt(length));
+      }
+    } finally {
+      br.close();
+    }
+    return longest;
+  }
+
+  private static void stopAll(List<Walker> walkers) {
+    for (Walker walker : walkers) {
+      walker.stop();
+    }
+  }
+
+  private void printSummary(List<Walker> walkers, SearchMetrics metrics,
+      ReachabilityCache cache, int bound, long nanos) {
+    long total = 0;
+    for (Walker walker : walkers) {
+      total += walker.getWalks();
+    }
+    double seconds = nanos / 1e9;
+
+    System.out.println("Search finished on " + graph.getName());
+    System.out.format("Walker: %s, threads: %d%n", walkerType.getName(), walkers.size());
+    System.out.format("Walks: %d in %.1fs (%.1f walks/s)%n", total, seconds,
+        (seconds > 0) ? total / seconds : 0.0);
+    for (int x = 0; x < walkers.size(); x++) {
+      System.out.format("  Walker %d: %d walks%n", x, walkers.get(x).getWalks());
+    }
+    System.out.format("Steps per walk: %.1f, candidates: %d, pruned: %d, visited: %d%n",
+        metrics.getStepsPerWalk(), metrics.getCandidates(), metrics.getPruned(),
+        metrics.getVisited());
+    if (cache != null) {
+      long hits = cache.getHits();
+      long lookups = hits + cache.getMisses();
+      if (lookups > 0) {
+        System.out.format("Reachability cache: %d of %d hit (%.1f%%), %d entries, %d evicted%n",
+            hits, lookups, 100.0 * hits / lookups, cache.size(), cache.getEvictions());
+      }
+    }
+    String[] improvements = metrics.getImprovements();
+    if (improvements.length > 0) {
+      System.out.println("Last improvement at " + improvements[improvements.length - 1]);
     }
+    System.out.println("Longest path: " + metrics.getLongestPath() + ", at most " + bound);
   }
-  
 }
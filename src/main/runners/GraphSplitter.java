@@ -2,18 +2,17 @@ package main.runners;
 
 import java.io.IOException;
 import java.net.URL;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Queue;
 import java.util.Set;
-import java.util.Stack;
 
+import main.utils.Condensation;
 import main.utils.Graph;
 
 /**
- * Splits a given graph into its connected components
+ * Splits a given graph into its connected or strongly connected components
  * 
  * @author Peijin Zhang
  */
@@ -22,55 +21,35 @@ public class GraphSplitter {
   /**
    * Splits a given graph into strongly connected components
    * 
-   * Tarjan's SCC Algorithm
+   * Components are found by Condensation without recursion, so this works on
+   * deep graphs at the default thread stack size
    */
   public static Set<Graph> splitSCC(Graph graph) {
+    return splitSCC(new Condensation(graph));
+  }
+
+  /**
+   * Splits the graph of a condensation into its strongly connected components,
+   * named [graph]SCC[component id]
+   */
+  public static Set<Graph> splitSCC(Condensation condensation) {
     Set<Graph> graphs = new HashSet<Graph>();
-    
-    int size = graph.size();
-    boolean[] marked = new boolean[size];
-    Stack<Integer> stack = new Stack<Integer>();
-    int[] low = new int[size];
-    int pre = 0;
-    
-    for (int x = 0; x < size; x++) {
-      if (!marked[x]) {
-        pre = dfs(graph, marked, stack, low, pre, x, graphs);
-      }
+
+    Graph graph = condensation.getGraph();
+    for (Graph component : graph.partition(condensation.getComponents(),
+        condensation.componentCount(), graph.getName() + "SCC")) {
+      graphs.add(component);
     }
-    
+
     return graphs;
   }
-  
-  private static int dfs(Graph graph, boolean[] marked, Stack<Integer> stack, int[] low, 
-      int pre, int v, Set<Graph> graphs) { 
-    marked[v] = true;
-    low[v] = pre++;
-    int min = low[v];
-    stack.push(v);
-    
-    for (int w : graph.getOutEdges(v)) {
-        if (!marked[w]) pre = dfs(graph, marked, stack, low, pre, w, graphs);
-        if (low[w] < min) min = low[w];
-    }
-    if (min < low[v]) { low[v] = min; return pre; }
-    
-    
-    List<String> vertices = graph.getVertices();
-    List<String> component = new ArrayList<String>();
-    int w;
-    do {
-        w = stack.pop();
-        component.add(vertices.get(w));
-        low[w] = graph.size();
-    } while (w != v);
-    graphs.add(GraphMaker.makeGraph(component, "Component" + graphs.size()));
-    return pre;
-}
+
+  public static Set<Graph> splitSCC(URL url) throws IOException {
+    return splitSCC(Graph.readGraph(url));
+  }
   
   public static Set<Graph> splitGraph(Graph graph) {
     Set<Graph> graphs = new HashSet<Graph>();
-    List<String> vertexset = graph.getVertices();
 
     int size = graph.size();
     Set<Integer> remain = new HashSet<Integer>();
@@ -79,8 +58,9 @@ public class GraphSplitter {
     }
 
     int components = 0;
+    int[] vertices = new int[size];
     while (remain.size() > 0) {
-      List<String> vertices = new ArrayList<String>();
+      int count = 0;
 
       int init = remain.iterator().next();
       remain.remove(init);
@@ -90,11 +70,17 @@ public class GraphSplitter {
 
       while (bfs.size() > 0) {
         int cur = bfs.poll();
-        vertices.add(vertexset.get(cur));
-
-        List<Integer> edges = graph.getBothEdges(cur);
+        vertices[count++] = cur;
 
-        for (int edge : edges) {
+        for (int y = 0; y < graph.outDegree(cur); y++) {
+          int edge = graph.outEdge(cur, y);
+          if (remain.contains(edge)) {
+            remain.remove(edge);
+            bfs.add(edge);
+          }
+        }
+        for (int y = 0; y < graph.inDegree(cur); y++) {
+          int edge = graph.inEdge(cur, y);
           if (remain.contains(edge)) {
             remain.remove(edge);
             bfs.add(edge);
@@ -103,8 +89,8 @@ public class GraphSplitter {
       }
       components++;
 
-      Graph component = GraphMaker
-          .makeGraph(vertices, "Component" + components);
+      Graph component = graph.subgraph(Arrays.copyOf(vertices, count),
+          "Component" + components);
       graphs.add(component);
     }
 
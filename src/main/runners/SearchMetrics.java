@@ -0,0 +1,243 @@
+package main.runners;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import main.walkers.Walker;
+import main.walkers.WalkerMetrics;
+
+/**
+ * Adds up the metrics of the walkers in a search
+ *
+ * The totals are registered as an MBean while the search runs, and log writes
+ * a row for each walker and one for all of them to a CSV file, with walks per
+ * second measured since the last row.
+ *
+ * @author Peijin Zhang
+ */
+public class SearchMetrics implements SearchMetricsMBean {
+  private static final String HEADER = "seconds,walker,walks,walksPerSecond,stepsPerWalk,"
+      + "candidates,pruned,visited,longest";
+
+  private final String graph;
+  private final String walker;
+  private final List<WalkerMetrics> metrics;
+  private final AtomicInteger maxLength;
+  // Longest path length counted by the histogram
+  private final int bound;
+  private final long start;
+
+  private ObjectName name;
+  // Walks and time of the last row logged, the totals come last
+  private final long[] logged;
+  private long loggedAt;
+
+  public SearchMetrics(String graph, String walker, List<Walker> walkers,
+      AtomicInteger maxLength, int bound) {
+    this.graph = graph;
+    this.walker = walker;
+    this.metrics = new ArrayList<WalkerMetrics>(walkers.size());
+    for (Walker w : walkers) {
+      metrics.add(w.getMetrics());
+    }
+    this.maxLength = maxLength;
+    this.bound = bound;
+    this.start = System.nanoTime();
+
+    this.name = null;
+    this.logged = new long[walkers.size() + 1];
+    this.loggedAt = start;
+  }
+
+  /**
+   * Registers the totals with the platform MBean server, as
+   * main.runners:type=SearchMetrics,graph=[graph]
+   */
+  public void register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      name = new ObjectName("main.runners:type=SearchMetrics,graph=" + ObjectName.quote(graph));
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+    } catch (JMException e) {
+      System.err.println("Error registering search metrics");
+      e.printStackTrace();
+      name = null;
+    }
+  }
+
+  public void unregister() {
+    if (name == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    } catch (JMException e) {
+      // Already gone
+    }
+    name = null;
+  }
+
+  /**
+   * Appends a row for each walker and one for all of them to a CSV file
+   */
+  public synchronized void log(String filename) throws IOException {
+    File file = new File(filename);
+    boolean header = !file.exists();
+    PrintWriter out = new PrintWriter(new FileWriter(file, true));
+    if (header) {
+      out.println(HEADER);
+    }
+
+    long now = System.nanoTime();
+    double interval = (now - loggedAt) / 1e9;
+    double seconds = (now - start) / 1e9;
+    long walks = 0;
+    long steps = 0;
+    long candidates = 0;
+    long pruned = 0;
+    long visited = 0;
+    for (int x = 0; x < metrics.size(); x++) {
+      WalkerMetrics m = metrics.get(x);
+      long w = m.getWalks();
+      writeRow(out, seconds, Integer.toString(x), w, rate(w - logged[x], interval),
+          m.getSteps(), m.getCandidates(), m.getPruned(), m.getVisited());
+      logged[x] = w;
+      walks += w;
+      steps += m.getSteps();
+      candidates += m.getCandidates();
+      pruned += m.getPruned();
+      visited += m.getVisited();
+    }
+    int all = metrics.size();
+    writeRow(out, seconds, "all", walks, rate(walks - logged[all], interval),
+        steps, candidates, pruned, visited);
+    logged[all] = walks;
+    loggedAt = now;
+
+    out.flush();
+    out.close();
+  }
+
+  private void writeRow(PrintWriter out, double seconds, String walker, long walks,
+      double walksPerSecond, long steps, long candidates, long pruned, long visited) {
+    out.format("%.1f,%s,%d,%.1f,%.2f,%d,%d,%d,%d%n", seconds, walker, walks, walksPerSecond,
+        perWalk(steps, walks), candidates, pruned, visited, maxLength.get());
+  }
+
+  public String getGraph() {
+    return graph;
+  }
+
+  public String getWalker() {
+    return walker;
+  }
+
+  public int getWalkers() {
+    return metrics.size();
+  }
+
+  public double getSeconds() {
+    return (System.nanoTime() - start) / 1e9;
+  }
+
+  public long getWalks() {
+    long walks = 0;
+    for (WalkerMetrics m : metrics) {
+      walks += m.getWalks();
+    }
+    return walks;
+  }
+
+  public double getWalksPerSecond() {
+    return rate(getWalks(), getSeconds());
+  }
+
+  public double getStepsPerWalk() {
+    long steps = 0;
+    long walks = 0;
+    for (WalkerMetrics m : metrics) {
+      // Walks are published last, so reading them first never misses a walk's steps
+      walks += m.getWalks();
+      steps += m.getSteps();
+    }
+    return perWalk(steps, walks);
+  }
+
+  public long getCandidates() {
+    long candidates = 0;
+    for (WalkerMetrics m : metrics) {
+      candidates += m.getCandidates();
+    }
+    return candidates;
+  }
+
+  public long getPruned() {
+    long pruned = 0;
+    for (WalkerMetrics m : metrics) {
+      pruned += m.getPruned();
+    }
+    return pruned;
+  }
+
+  public long getVisited() {
+    long visited = 0;
+    for (WalkerMetrics m : metrics) {
+      visited += m.getVisited();
+    }
+    return visited;
+  }
+
+  public int getLongestPath() {
+    return maxLength.get();
+  }
+
+  public long[] getPathLengths() {
+    long[] lengths = new long[bound + 1];
+    for (WalkerMetrics m : metrics) {
+      m.addLengths(lengths);
+    }
+    return lengths;
+  }
+
+  public String[] getImprovements() {
+    List<long[]> improvements = new ArrayList<long[]>();
+    for (WalkerMetrics m : metrics) {
+      improvements.addAll(m.getImprovements());
+    }
+    Collections.sort(improvements, new Comparator<long[]>() {
+      public int compare(long[] a, long[] b) {
+        return Long.compare(a[0], b[0]);
+      }
+    });
+
+    String[] lines = new String[improvements.size()];
+    for (int x = 0; x < lines.length; x++) {
+      long[] improvement = improvements.get(x);
+      lines[x] = String.format("%.1fs: %d", (improvement[0] - start) / 1e9, improvement[1]);
+    }
+    return lines;
+  }
+
+  private static double rate(long count, double seconds) {
+    return (seconds > 0) ? count / seconds : 0.0;
+  }
+
+  private static double perWalk(long count, long walks) {
+    return (walks > 0) ? (double) count / walks : 0.0;
+  }
+}
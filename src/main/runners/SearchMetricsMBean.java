@@ -0,0 +1,40 @@
+package main.runners;
+
+/**
+ * JMX view of a running search, see SearchMetrics
+ *
+ * @author Peijin Zhang
+ */
+public interface SearchMetricsMBean {
+  public String getGraph();
+
+  public String getWalker();
+
+  public int getWalkers();
+
+  public double getSeconds();
+
+  public long getWalks();
+
+  public double getWalksPerSecond();
+
+  public double getStepsPerWalk();
+
+  public long getCandidates();
+
+  public long getPruned();
+
+  public long getVisited();
+
+  public int getLongestPath();
+
+  /**
+   * Walks ending at each path length
+   */
+  public long[] getPathLengths();
+
+  /**
+   * Seconds into the search and length of each improvement
+   */
+  public String[] getImprovements();
+}
@@ -0,0 +1,163 @@
+package main.utils;
+
+import java.util.Arrays;
+
+/**
+ * Static helpers for vertex sets stored as long[] bitsets
+ * 
+ * Bit x of word x / 64 is set if vertex x is in the set
+ * 
+ * Helpers that combine sets and count the result work in place or without
+ * writing at all, so callers never need a scratch copy just to count.
+ * 
+ * @author Peijin Zhang
+ */
+public class BitsetUtils {
+
+  /**
+   * Number of words needed to hold a set over n vertices
+   */
+  public static int words(int n) {
+    return (n + 63) >>> 6;
+  }
+
+  public static long[] create(int n) {
+    return new long[words(n)];
+  }
+
+  public static boolean get(long[] bits, int x) {
+    return (bits[x >>> 6] & (1L << x)) != 0;
+  }
+
+  public static void set(long[] bits, int x) {
+    bits[x >>> 6] |= 1L << x;
+  }
+
+  public static void clear(long[] bits, int x) {
+    bits[x >>> 6] &= ~(1L << x);
+  }
+
+  public static void clear(long[] bits) {
+    Arrays.fill(bits, 0L);
+  }
+
+  public static void copy(long[] from, long[] to) {
+    System.arraycopy(from, 0, to, 0, from.length);
+  }
+
+  public static int cardinality(long[] bits) {
+    int count = 0;
+    for (int w = 0; w < bits.length; w++) {
+      count += Long.bitCount(bits[w]);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the size of the union of two sets, either of which may be null
+   */
+  public static int orCardinality(long[] a, long[] b) {
+    if (a == null) {
+      return (b == null) ? 0 : cardinality(b);
+    } else if (b == null) {
+      return cardinality(a);
+    }
+
+    int count = 0;
+    for (int w = 0; w < a.length; w++) {
+      count += Long.bitCount(a[w] | b[w]);
+    }
+    return count;
+  }
+
+  /**
+   * One level of a breadth first search: frontier = frontier & ~reached, then
+   * reached = reached | frontier
+   * 
+   * Returns the number of vertices newly reached, so a mask is honoured by
+   * starting with it in reached
+   * 
+   * Both sets are updated in one pass and the new frontier is counted in a
+   * second, since a popcnt in the update loop keeps the JIT from vectorizing it
+   */
+  public static int advance(long[] frontier, long[] reached) {
+    for (int w = 0; w < frontier.length; w++) {
+      long fresh = frontier[w] & ~reached[w];
+      frontier[w] = fresh;
+      reached[w] |= fresh;
+    }
+    return cardinality(frontier);
+  }
+
+  /**
+   * into = into | other
+   */
+  public static void or(long[] into, long[] other) {
+    for (int w = 0; w < into.length; w++) {
+      into[w] |= other[w];
+    }
+  }
+
+  /**
+   * into = into & other
+   */
+  public static void and(long[] into, long[] other) {
+    for (int w = 0; w < into.length; w++) {
+      into[w] &= other[w];
+    }
+  }
+
+  /**
+   * into = into & (a | b)
+   * 
+   * Returns false if into is now empty
+   */
+  public static boolean andUnion(long[] into, long[] a, long[] b) {
+    long any = 0;
+    for (int w = 0; w < into.length; w++) {
+      into[w] &= a[w] | b[w];
+      any |= into[w];
+    }
+    return any != 0;
+  }
+
+  /**
+   * Returns the members of a set in increasing order
+   */
+  public static int[] toArray(long[] bits) {
+    int[] members = new int[cardinality(bits)];
+    int count = 0;
+    for (int w = 0; w < bits.length; w++) {
+      long word = bits[w];
+      while (word != 0) {
+        members[count++] = (w << 6) + Long.numberOfTrailingZeros(word);
+        word &= word - 1;
+      }
+    }
+    return members;
+  }
+
+  /**
+   * 64 bit hash of a set, mixing each word with splitmix64
+   */
+  public static long hash(long[] bits) {
+    long hash = 0;
+    for (int w = 0; w < bits.length; w++) {
+      long z = bits[w] + (w + 1) * 0x9E3779B97F4A7C15L;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      hash = hash * 31 + (z ^ (z >>> 31));
+    }
+    return hash;
+  }
+
+  /**
+   * Sets all of the first n bits
+   */
+  public static void fill(long[] bits, int n) {
+    Arrays.fill(bits, 0, n >>> 6, -1L);
+    if ((n & 63) != 0) {
+      bits[n >>> 6] = (1L << n) - 1;
+    }
+  }
+}
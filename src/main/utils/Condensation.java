@@ -0,0 +1,210 @@
+package main.utils;
+
+import java.util.Arrays;
+
+/**
+ * Strongly connected components of a graph and the DAG between them
+ * 
+ * Components are found with an iterative version of Tarjan's algorithm so deep
+ * graphs don't overflow the thread stack. Component ids come out in reverse
+ * topological order, if there is an edge from component a to component b then
+ * b < a.
+ * 
+ * @author Peijin Zhang
+ */
+public class Condensation {
+  private final Graph graph;
+
+  // component[x] is the id of the component containing vertex x
+  private final int[] component;
+  private final int count;
+
+  // Compressed sparse row lists of the members, successors and predecessors
+  // of each component
+  private final int[] memberoffsets;
+  private final int[] members;
+  private final int[] succoffsets;
+  private final int[] successors;
+  private final int[] predoffsets;
+  private final int[] predecessors;
+
+  public Condensation(Graph graph) {
+    this.graph = graph;
+
+    int size = graph.size();
+    this.component = new int[size];
+    this.count = findComponents();
+
+    this.memberoffsets = new int[count + 1];
+    this.members = new int[size];
+    for (int x = 0; x < size; x++) {
+      memberoffsets[component[x] + 1]++;
+    }
+    for (int c = 0; c < count; c++) {
+      memberoffsets[c + 1] += memberoffsets[c];
+    }
+    int[] fill = new int[count];
+    for (int x = 0; x < size; x++) {
+      members[memberoffsets[component[x]] + fill[component[x]]++] = x;
+    }
+
+    // Collect each DAG edge once by marking the last component that saw it
+    int[] seen = new int[count];
+    Arrays.fill(seen, -1);
+    int[] edges = new int[Math.max(16, graph.edgeCount())];
+    this.succoffsets = new int[count + 1];
+    int total = 0;
+    for (int c = 0; c < count; c++) {
+      for (int m = memberoffsets[c]; m < memberoffsets[c + 1]; m++) {
+        int v = members[m];
+        for (int y = 0; y < graph.outDegree(v); y++) {
+          int d = component[graph.outEdge(v, y)];
+          if (d != c && seen[d] != c) {
+            seen[d] = c;
+            edges[total++] = d;
+          }
+        }
+      }
+      succoffsets[c + 1] = total;
+    }
+    this.successors = Arrays.copyOf(edges, total);
+
+    this.predoffsets = new int[count + 1];
+    this.predecessors = new int[total];
+    for (int e = 0; e < total; e++) {
+      predoffsets[successors[e] + 1]++;
+    }
+    for (int c = 0; c < count; c++) {
+      predoffsets[c + 1] += predoffsets[c];
+    }
+    Arrays.fill(fill, 0);
+    for (int c = 0; c < count; c++) {
+      for (int e = succoffsets[c]; e < succoffsets[c + 1]; e++) {
+        int d = successors[e];
+        predecessors[predoffsets[d] + fill[d]++] = c;
+      }
+    }
+  }
+
+  /**
+   * Tarjan's SCC algorithm with an explicit call stack
+   * 
+   * Fills in component and returns the number of components
+   */
+  private int findComponents() {
+    int size = graph.size();
+    int[] index = new int[size];
+    int[] low = new int[size];
+    Arrays.fill(index, -1);
+
+    // Tarjan stack of vertices in components not yet assigned
+    int[] stack = new int[size];
+    boolean[] onstack = new boolean[size];
+    int stacksize = 0;
+
+    // Simulated call stack, the vertex and the next out edge to look at
+    int[] callvertex = new int[size];
+    int[] calledge = new int[size];
+    int depth = 0;
+
+    int pre = 0;
+    int components = 0;
+
+    for (int root = 0; root < size; root++) {
+      if (index[root] >= 0) {
+        continue;
+      }
+
+      index[root] = low[root] = pre++;
+      stack[stacksize++] = root;
+      onstack[root] = true;
+      callvertex[0] = root;
+      calledge[0] = 0;
+      depth = 1;
+
+      while (depth > 0) {
+        int v = callvertex[depth - 1];
+        int y = calledge[depth - 1];
+
+        if (y < graph.outDegree(v)) {
+          calledge[depth - 1]++;
+          int w = graph.outEdge(v, y);
+          if (index[w] < 0) {
+            index[w] = low[w] = pre++;
+            stack[stacksize++] = w;
+            onstack[w] = true;
+            callvertex[depth] = w;
+            calledge[depth] = 0;
+            depth++;
+          } else if (onstack[w] && index[w] < low[v]) {
+            low[v] = index[w];
+          }
+          continue;
+        }
+
+        // Done with v, pop it and pass its low link up to the caller
+        depth--;
+        if (low[v] == index[v]) {
+          int w;
+          do {
+            w = stack[--stacksize];
+            onstack[w] = false;
+            component[w] = components;
+          } while (w != v);
+          components++;
+        }
+        if (depth > 0) {
+          int parent = callvertex[depth - 1];
+          if (low[v] < low[parent]) {
+            low[parent] = low[v];
+          }
+        }
+      }
+    }
+
+    return components;
+  }
+
+  public Graph getGraph() {
+    return graph;
+  }
+
+  public int getComponent(int vertex) {
+    return component[vertex];
+  }
+
+  /**
+   * Returns the component id of every vertex, must not be modified
+   */
+  public int[] getComponents() {
+    return component;
+  }
+
+  public int componentCount() {
+    return count;
+  }
+
+  public int componentSize(int c) {
+    return memberoffsets[c + 1] - memberoffsets[c];
+  }
+
+  public int member(int c, int index) {
+    return members[memberoffsets[c] + index];
+  }
+
+  public int successorCount(int c) {
+    return succoffsets[c + 1] - succoffsets[c];
+  }
+
+  public int successor(int c, int index) {
+    return successors[succoffsets[c] + index];
+  }
+
+  public int predecessorCount(int c) {
+    return predoffsets[c + 1] - predoffsets[c];
+  }
+
+  public int predecessor(int c, int index) {
+    return predecessors[predoffsets[c] + index];
+  }
+}
@@ -1,71 +1,286 @@
 package main.utils;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
- * Graph represented as adjacency lists
+ * Graph represented in compressed sparse row format
  * 
- * Contains two lists, one for in edges and one for out
+ * Contains two edge arrays, one for in edges and one for out. The graph is
+ * immutable once built, use Graph.Builder to add edges.
  * 
  * @author Peijin Zhang
  */
 public class Graph {
   private static final String NO_NAME = "NamelessGraph";
 
-  // indeges[x] contains y if there exists an edge (y,x)
-  private final List<Integer>[] inedges;
-  // outedges[x] contains y if there exists an edge (x,y)
-  private final List<Integer>[] outedges;
+  public static final String BINARY_EXTENSION = ".bin";
+  private static final int BINARY_MAGIC = 0x4752434D;
+  private static final int BINARY_VERSION = 1;
+  // Number of ints in the binary header
+  private static final int BINARY_HEADER = 6;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  // outtargets[outoffsets[x]] to outtargets[outoffsets[x + 1] - 1] are y
+  // such that there exists an edge (x,y)
+  private final int[] outoffsets;
+  private final int[] outtargets;
+  // intargets[inoffsets[x]] to intargets[inoffsets[x + 1] - 1] are y such
+  // that there exists an edge (y,x)
+  private final int[] inoffsets;
+  private final int[] intargets;
 
   private final List<String> vertices;
 
   private final int size;
   private String name;
 
-  @SuppressWarnings("unchecked")
-  public Graph(List<String> vertices, String name) {
+  // Stands for this graph in the graphs taken from it, without keeping it alive
+  private final Object key;
+  // Keys of the graphs this was taken from, nearest first, and vertex x here
+  // is vertex ancestorids[a][x] in ancestor a
+  private final Object[] ancestors;
+  private final int[][] ancestorids;
+
+  // Built the first time a vertex is looked up by name
+  private volatile Map<String, Integer> index;
+
+  /**
+   * Creates a graph from the out edges in compressed sparse row format
+   * 
+   * In edges are derived from the out edges, sorted by source vertex
+   */
+  public Graph(List<String> vertices, String name, int[] outoffsets, int[] outtargets) {
+    this(vertices, name, outoffsets, outtargets, null, null, null, null);
+  }
+
+  /**
+   * In edges are derived from the out edges if inoffsets and intargets are null
+   */
+  private Graph(List<String> vertices, String name, int[] outoffsets, int[] outtargets,
+      int[] inoffsets, int[] intargets, Graph parent, int[] parentids) {
     this.name = name;
+    this.key = new Object();
+    if (parent == null) {
+      this.ancestors = new Object[0];
+      this.ancestorids = new int[0][];
+    } else {
+      // Ids in the parent's ancestors follow from its own ids
+      this.ancestors = new Object[parent.ancestors.length + 1];
+      this.ancestorids = new int[ancestors.length][];
+      ancestors[0] = parent.key;
+      ancestorids[0] = parentids;
+      for (int a = 0; a < parent.ancestors.length; a++) {
+        int[] ids = new int[parentids.length];
+        for (int x = 0; x < ids.length; x++) {
+          ids[x] = parent.ancestorids[a][parentids[x]];
+        }
+        ancestors[a + 1] = parent.ancestors[a];
+        ancestorids[a + 1] = ids;
+      }
+    }
     this.size = vertices.size();
-    this.inedges = new List[size];
-    this.outedges = new List[size];
     this.vertices = new ArrayList<String>(vertices);
+    this.outoffsets = outoffsets;
+    this.outtargets = outtargets;
+
+    if (inoffsets == null) {
+      inoffsets = new int[size + 1];
+      intargets = new int[outtargets.length];
+      for (int e = 0; e < outtargets.length; e++) {
+        inoffsets[outtargets[e] + 1]++;
+      }
+      for (int x = 0; x < size; x++) {
+        inoffsets[x + 1] += inoffsets[x];
+      }
+      int[] fill = new int[size];
+      for (int x = 0; x < size; x++) {
+        for (int e = outoffsets[x]; e < outoffsets[x + 1]; e++) {
+          int to = outtargets[e];
+          intargets[inoffsets[to] + fill[to]++] = x;
+        }
+      }
+    }
+    this.inoffsets = inoffsets;
+    this.intargets = intargets;
+  }
+
+  /**
+   * Makes the subgraph induced by the given vertices
+   * 
+   * Vertex x of the subgraph is vertices[x] here, and keeps every edge to
+   * other vertices in the subgraph. The mapping is recorded on the subgraph.
+   */
+  public Graph subgraph(int[] vertices, String name) {
+    int[] newids = new int[size];
+    Arrays.fill(newids, -1);
+    for (int x = 0; x < vertices.length; x++) {
+      newids[vertices[x]] = x;
+    }
+
+    List<String> names = new ArrayList<String>(vertices.length);
+    int[] offsets = new int[vertices.length + 1];
+    int[] targets = new int[outtargets.length];
+    int count = 0;
+    for (int x = 0; x < vertices.length; x++) {
+      int v = vertices[x];
+      names.add(this.vertices.get(v));
+      for (int e = outoffsets[v]; e < outoffsets[v + 1]; e++) {
+        int to = newids[outtargets[e]];
+        if (to >= 0) {
+          targets[count++] = to;
+        }
+      }
+      // Keep targets in increasing order as GraphMaker does
+      Arrays.sort(targets, offsets[x], count);
+      offsets[x + 1] = count;
+    }
+
+    return new Graph(names, name, offsets, Arrays.copyOf(targets, count), null, null,
+        this, vertices.clone());
+  }
 
+  /**
+   * Splits the graph into the subgraphs induced by each part, where parts[v] is
+   * the part of vertex v between 0 and count - 1
+   * 
+   * Same as taking a subgraph of each part with its vertices in increasing
+   * order, but in time linear in the size of this graph rather than per part.
+   * Part p is named name + p.
+   */
+  public Graph[] partition(int[] parts, int count, String name) {
+    // Vertices grouped by part, and each vertex's id inside its part
+    int[] starts = new int[count + 1];
     for (int x = 0; x < size; x++) {
-      inedges[x] = new LinkedList<Integer>();
-      outedges[x] = new LinkedList<Integer>();
+      starts[parts[x] + 1]++;
     }
+    for (int p = 0; p < count; p++) {
+      starts[p + 1] += starts[p];
+    }
+    int[] members = new int[size];
+    int[] newids = new int[size];
+    int[] fill = Arrays.copyOf(starts, count);
+    for (int x = 0; x < size; x++) {
+      int p = parts[x];
+      newids[x] = fill[p] - starts[p];
+      members[fill[p]++] = x;
+    }
+
+    Graph[] graphs = new Graph[count];
+    for (int p = 0; p < count; p++) {
+      int partsize = starts[p + 1] - starts[p];
+      int edges = 0;
+      for (int x = starts[p]; x < starts[p + 1]; x++) {
+        edges += outDegree(members[x]);
+      }
+
+      List<String> names = new ArrayList<String>(partsize);
+      int[] offsets = new int[partsize + 1];
+      int[] targets = new int[edges];
+      int edgecount = 0;
+      for (int x = 0; x < partsize; x++) {
+        int v = members[starts[p] + x];
+        names.add(this.vertices.get(v));
+        for (int e = outoffsets[v]; e < outoffsets[v + 1]; e++) {
+          if (parts[outtargets[e]] == p) {
+            targets[edgecount++] = newids[outtargets[e]];
+          }
+        }
+        Arrays.sort(targets, offsets[x], edgecount);
+        offsets[x + 1] = edgecount;
+      }
+
+      graphs[p] = new Graph(names, name + p, offsets, Arrays.copyOf(targets, edgecount),
+          null, null, this, Arrays.copyOfRange(members, starts[p], starts[p + 1]));
+    }
+    return graphs;
   }
 
-  public Graph(List<String> vertices) {
-    this(vertices, NO_NAME);
+  /**
+   * Whether this graph is other or was taken from it by subgraph or
+   * partition, directly or through other subgraphs
+   * 
+   * Only the vertex ids are kept, not the graphs they were taken from, so a
+   * chain of reductions doesn't keep every graph in it alive.
+   */
+  public boolean isTakenFrom(Graph other) {
+    return ancestorIndex(other) >= -1;
   }
 
-  public void addEdge(String from, String to) {
-    addEdge(vertices.indexOf(from), vertices.indexOf(to));
+  /**
+   * Returns the id in other of a vertex, see isTakenFrom
+   */
+  public int getIdIn(Graph other, int vertex) {
+    int a = ancestorIndex(other);
+    if (a < -1) {
+      throw new IllegalArgumentException(name + " was not taken from " + other.name);
+    }
+    return (a == -1) ? vertex : ancestorids[a][vertex];
   }
 
-  public void addEdge(int from, int to) {
-    inedges[to].add(from);
-    outedges[from].add(to);
+  /**
+   * Index of other in ancestors, -1 if it is this graph or -2 if neither
+   */
+  private int ancestorIndex(Graph other) {
+    if (other == this) {
+      return -1;
+    }
+    for (int a = 0; a < ancestors.length; a++) {
+      if (ancestors[a] == other.key) {
+        return a;
+      }
+    }
+    return -2;
+  }
+
+  /**
+   * Returns the id of the vertex with the given name, or -1
+   */
+  public int indexOf(String vertex) {
+    Map<String, Integer> index = this.index;
+    if (index == null) {
+      index = new HashMap<String, Integer>(size * 2);
+      for (int x = 0; x < size; x++) {
+        index.put(vertices.get(x), x);
+      }
+      this.index = index;
+    }
+    Integer id = index.get(vertex);
+    return (id == null) ? -1 : id;
   }
 
   public int size() {
     return size;
   }
 
+  public int edgeCount() {
+    return outtargets.length;
+  }
+
   public String getName() {
     return name;
   }
@@ -74,42 +289,87 @@ public class Graph {
     this.name = name;
   }
 
+  public String getVertex(int vertex) {
+    return vertices.get(vertex);
+  }
+
   public List<String> getVertices() {
     return new ArrayList<String>(vertices);
   }
 
+  public int outDegree(int vertex) {
+    return outoffsets[vertex + 1] - outoffsets[vertex];
+  }
+
+  /**
+   * Returns the index-th out edge of a vertex without copying
+   */
+  public int outEdge(int vertex, int index) {
+    return outtargets[outoffsets[vertex] + index];
+  }
+
+  public int inDegree(int vertex) {
+    return inoffsets[vertex + 1] - inoffsets[vertex];
+  }
+
+  /**
+   * Returns the index-th in edge of a vertex without copying
+   */
+  public int inEdge(int vertex, int index) {
+    return intargets[inoffsets[vertex] + index];
+  }
+
   public List<Integer> getBothEdges(String vertex) {
-    return getBothEdges(vertices.indexOf(vertex));
+    return getBothEdges(indexOf(vertex));
   }
 
   public List<Integer> getBothEdges(int vertex) {
-    Set<Integer> result = new HashSet<Integer>(inedges[vertex]);
-    result.addAll(outedges[vertex]);
+    Set<Integer> result = new HashSet<Integer>(getInEdges(vertex));
+    result.addAll(getOutEdges(vertex));
     return new LinkedList<Integer>(result);
   }
 
   public List<Integer> getInEdges(String vertex) {
-    return getInEdges(vertices.indexOf(vertex));
+    return getInEdges(indexOf(vertex));
   }
 
+  /**
+   * Returns a copy of the in edges of a vertex, prefer inDegree and inEdge
+   */
   public List<Integer> getInEdges(int vertex) {
-    return new LinkedList<Integer>(inedges[vertex]);
+    List<Integer> edges = new ArrayList<Integer>(inDegree(vertex));
+    for (int e = inoffsets[vertex]; e < inoffsets[vertex + 1]; e++) {
+      edges.add(intargets[e]);
+    }
+    return edges;
   }
 
   public List<Integer> getOutEdges(String vertex) {
-    return getOutEdges(vertices.indexOf(vertex));
+    return getOutEdges(indexOf(vertex));
   }
 
+  /**
+   * Returns a copy of the out edges of a vertex, prefer outDegree and outEdge
+   */
   public List<Integer> getOutEdges(int vertex) {
-    return new LinkedList<Integer>(outedges[vertex]);
+    List<Integer> edges = new ArrayList<Integer>(outDegree(vertex));
+    for (int e = outoffsets[vertex]; e < outoffsets[vertex + 1]; e++) {
+      edges.add(outtargets[e]);
+    }
+    return edges;
   }
   
   public boolean containsEdge(String from, String to) {
-    return containsEdge(vertices.indexOf(from), vertices.indexOf(to));
+    return containsEdge(indexOf(from), indexOf(to));
   }
   
   public boolean containsEdge(int from, int to) {
-    return outedges[from].contains(to);
+    for (int e = outoffsets[from]; e < outoffsets[from + 1]; e++) {
+      if (outtargets[e] == to) {
+        return true;
+      }
+    }
+    return false;
   }
   
   /*
@@ -151,9 +411,9 @@ public class Graph {
     }
 
     for (int x = 0; x < size; x++) {
-      for (int y = 0; y < outedges[x].size(); y++) {
+      for (int e = outoffsets[x]; e < outoffsets[x + 1]; e++) {
         out.format("\t\t<edge source=\"%s\" target=\"%s\"/>%n",
-            vertices.get(x), vertices.get(outedges[x].get(y)));
+            vertices.get(x), vertices.get(outtargets[e]));
       }
     }
 
@@ -182,7 +442,7 @@ public class Graph {
    */
   public void writeToFile(String filename) throws IOException {
     File file = new File(filename);
-    file.mkdirs();
+    makeParentDirs(file);
     PrintWriter out = new PrintWriter(new FileWriter(file));
 
     out.println(name);
@@ -194,8 +454,8 @@ public class Graph {
 
     for (int x = 0; x < size; x++) {
       StringBuffer buf = new StringBuffer();
-      for (int e : outedges[x]) {
-        buf.append(e);
+      for (int e = outoffsets[x]; e < outoffsets[x + 1]; e++) {
+        buf.append(outtargets[e]);
         buf.append(" ");
       }
       out.println(buf.toString().trim());
@@ -219,7 +479,7 @@ public class Graph {
       vertices.add(br.readLine());
     }
 
-    Graph graph = new Graph(vertices, name);
+    Builder graph = new Builder(vertices, name);
 
     for (int x = 0; x < size; x++) {
       String nextline = br.readLine();
@@ -233,14 +493,218 @@ public class Graph {
 
     br.close();
 
-    return graph;
+    return graph.build();
   }
   
+  /**
+   * Reads a graph from a text or, if the path ends in .bin, a binary file
+   */
   public static Graph readGraph(URL url) throws IOException {
+    if (url.getPath().endsWith(BINARY_EXTENSION)) {
+      if ("file".equals(url.getProtocol())) {
+        try {
+          return readBinary(new File(url.toURI()).getPath());
+        } catch (URISyntaxException e) {
+          throw new IOException("Bad graph path " + url);
+        }
+      }
+      return readBinary(url.openStream());
+    }
     return readGraph(url.openStream());
   }
   
   public static Graph readGraph(String filename) throws IOException {
+    if (filename.endsWith(BINARY_EXTENSION)) {
+      return readBinary(filename);
+    }
     return readGraph(new FileInputStream(new File(filename)));
   }
+
+  /*
+   * Binary graph specification:
+   * 
+   * All values are little endian 32 bit ints unless noted
+   * 
+   * Header - magic, version, n (number of vertices), m (number of edges), 
+   * length of the name in bytes, length of all vertex names in bytes
+   * 
+   * Out offsets (n + 1) and out targets (m), the compressed sparse row out edges
+   * 
+   * In offsets (n + 1) and in targets (m), the same for in edges
+   * 
+   * Name offsets (n + 1), vertex x's name is bytes name offsets[x] to name 
+   * offsets[x + 1] of the vertex names
+   * 
+   * Graph name followed by the vertex names, UTF-8 bytes
+   */
+
+  /**
+   * Writes graph to file in binary format
+   */
+  public void writeBinary(String filename) throws IOException {
+    byte[] namebytes = name.getBytes(UTF8);
+    byte[][] vertexbytes = new byte[size][];
+    int[] nameoffsets = new int[size + 1];
+    for (int x = 0; x < size; x++) {
+      vertexbytes[x] = vertices.get(x).getBytes(UTF8);
+      nameoffsets[x + 1] = nameoffsets[x] + vertexbytes[x].length;
+    }
+
+    int intcount = BINARY_HEADER + 3 * (size + 1) + 2 * outtargets.length;
+    ByteBuffer buf = ByteBuffer.allocate(4 * intcount + namebytes.length + nameoffsets[size]);
+    buf.order(ByteOrder.LITTLE_ENDIAN);
+
+    buf.putInt(BINARY_MAGIC);
+    buf.putInt(BINARY_VERSION);
+    buf.putInt(size);
+    buf.putInt(outtargets.length);
+    buf.putInt(namebytes.length);
+    buf.putInt(nameoffsets[size]);
+
+    IntBuffer ints = buf.asIntBuffer();
+    ints.put(outoffsets).put(outtargets).put(inoffsets).put(intargets).put(nameoffsets);
+    buf.position(buf.position() + 4 * ints.position());
+
+    buf.put(namebytes);
+    for (byte[] bytes : vertexbytes) {
+      buf.put(bytes);
+    }
+    buf.flip();
+
+    File file = new File(filename);
+    makeParentDirs(file);
+    FileChannel channel = new FileOutputStream(file).getChannel();
+    try {
+      while (buf.hasRemaining()) {
+        channel.write(buf);
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Reads a binary graph by mapping the file into memory
+   * 
+   * Loading is a bulk copy: every array is copied out of the mapping into the
+   * heap, so each process keeps its own copy of the graph and nothing is
+   * shared across processes. Mapping only makes the read itself fast.
+   */
+  public static Graph readBinary(String filename) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(filename, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      return readBinary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      file.close();
+    }
+  }
+
+  public static Graph readBinary(InputStream stream) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] chunk = new byte[1 << 16];
+    int read;
+    while ((read = stream.read(chunk)) > 0) {
+      bytes.write(chunk, 0, read);
+    }
+    stream.close();
+    return readBinary(ByteBuffer.wrap(bytes.toByteArray()));
+  }
+
+  private static Graph readBinary(ByteBuffer buf) throws IOException {
+    buf.order(ByteOrder.LITTLE_ENDIAN);
+    if (buf.remaining() < 4 * BINARY_HEADER || buf.getInt() != BINARY_MAGIC) {
+      throw new IOException("Not a binary graph file");
+    }
+    if (buf.getInt() != BINARY_VERSION) {
+      throw new IOException("Unsupported binary graph version");
+    }
+    int size = buf.getInt();
+    int edges = buf.getInt();
+    int namelength = buf.getInt();
+    buf.getInt();
+
+    int[] outoffsets = new int[size + 1];
+    int[] outtargets = new int[edges];
+    int[] inoffsets = new int[size + 1];
+    int[] intargets = new int[edges];
+    int[] nameoffsets = new int[size + 1];
+
+    IntBuffer ints = buf.asIntBuffer();
+    ints.get(outoffsets).get(outtargets).get(inoffsets).get(intargets).get(nameoffsets);
+    buf.position(buf.position() + 4 * ints.position());
+
+    byte[] names = new byte[namelength + nameoffsets[size]];
+    buf.get(names);
+    String name = new String(names, 0, namelength, UTF8);
+    List<String> vertices = new ArrayList<String>(size);
+    for (int x = 0; x < size; x++) {
+      vertices.add(new String(names, namelength + nameoffsets[x],
+          nameoffsets[x + 1] - nameoffsets[x], UTF8));
+    }
+
+    return new Graph(vertices, name, outoffsets, outtargets, inoffsets, intargets, null, null);
+  }
+
+  private static void makeParentDirs(File file) {
+    File dir = file.getAbsoluteFile().getParentFile();
+    if (dir != null) {
+      dir.mkdirs();
+    }
+  }
+
+  /**
+   * Collects edges for a graph and packs them into compressed sparse row format
+   * 
+   * Out edges keep the order they were added in for each source vertex
+   */
+  public static class Builder {
+    private final List<String> vertices;
+    private final String name;
+
+    private int[] from;
+    private int[] to;
+    private int edges;
+
+    public Builder(List<String> vertices, String name) {
+      this.vertices = vertices;
+      this.name = name;
+      this.from = new int[16];
+      this.to = new int[16];
+      this.edges = 0;
+    }
+
+    public Builder(List<String> vertices) {
+      this(vertices, NO_NAME);
+    }
+
+    public void addEdge(int from, int to) {
+      if (edges == this.from.length) {
+        this.from = Arrays.copyOf(this.from, edges * 2);
+        this.to = Arrays.copyOf(this.to, edges * 2);
+      }
+      this.from[edges] = from;
+      this.to[edges] = to;
+      edges++;
+    }
+
+    public Graph build() {
+      int size = vertices.size();
+      int[] offsets = new int[size + 1];
+      for (int e = 0; e < edges; e++) {
+        offsets[from[e] + 1]++;
+      }
+      for (int x = 0; x < size; x++) {
+        offsets[x + 1] += offsets[x];
+      }
+
+      int[] targets = new int[edges];
+      int[] fill = new int[size];
+      for (int e = 0; e < edges; e++) {
+        targets[offsets[from[e]] + fill[from[e]]++] = to[e];
+      }
+
+      return new Graph(vertices, name, offsets, targets);
+    }
+  }
 }
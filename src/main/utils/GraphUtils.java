@@ -1,82 +1,80 @@
 package main.utils;
 
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Queue;
-import java.util.Set;
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Shared static methods for graph functions
  * 
+ * Vertex sets are long[] bitsets, see BitsetUtils
+ * 
  * @author Peijin Zhang
  */
 public class GraphUtils {
   public static final int CANDIDATE_CUTOFF = 315;
-  
+
+  // Shared by all parallel graph work, its worker threads are daemons
+  public static final ForkJoinPool POOL = new ForkJoinPool();
+
   /**
-   * Searches using outgoing edges from a vertex and given a current set of visited nodes
+   * Finds a graph on the classpath by name, preferring the binary format
    * 
-   * Returns the set of nodes reachable from this vertex
+   * A text graph written after the binary one, say by regenerating it, is
+   * used instead so that a stale binary can't hide it. Returns null if there
+   * is no such graph
    */
-  public static Set<Integer> searchForward(Graph graph, int vertex, Set<Integer> visited) {
-    Set<Integer> reached = (visited == null) ? 
-        new HashSet<Integer>() : new HashSet<Integer>(visited);
-    reached.add(vertex);
-
-    Queue<Integer> bfs = new LinkedList<Integer>();
-    bfs.add(vertex);
-
-    while (bfs.size() > 0) {
-      int cur = bfs.poll();
-
-      List<Integer> edges = graph.getOutEdges(cur);
-
-      for (int edge : edges) {
-        if (!reached.contains(edge)) {
-          reached.add(edge);
-          bfs.add(edge);
-        }
-      }
+  public static URL findGraph(String name) {
+    URL binary = GraphUtils.class.getResource("/" + name + Graph.BINARY_EXTENSION);
+    URL text = GraphUtils.class.getResource("/" + name + ".txt");
+    if (binary == null || (text != null && lastModified(text) > lastModified(binary))) {
+      return text;
     }
+    return binary;
+  }
 
+  /**
+   * Modification time of a file URL, 0 if it isn't a file or can't be read
+   */
+  private static long lastModified(URL url) {
+    if (!"file".equals(url.getProtocol())) {
+      return 0;
+    }
+    try {
+      return new File(url.toURI()).lastModified();
+    } catch (URISyntaxException e) {
+      return 0;
+    }
+  }
+  
+  /**
+   * Searches using outgoing edges from a vertex and given a current set of visited nodes
+   * 
+   * Returns the visited nodes plus the set of nodes reachable from this vertex
+   */
+  public static long[] searchForward(Graph graph, int vertex, long[] visited) {
+    long[] reached = BitsetUtils.create(graph.size());
+    new Reachability().searchForward(graph, vertex, visited, reached);
     return reached;
   }
   
-  public static Set<Integer> searchForward(Graph graph, int vertex) {
+  public static long[] searchForward(Graph graph, int vertex) {
     return searchForward(graph, vertex, null);
   }
 
   /**
    * Searches using ingoing edges from a vertex and given a current set of visited nodes
    * 
-   * Returns the set of nodes reachable from this vertex
+   * Returns the visited nodes plus the set of nodes reachable from this vertex
    */
-  public static Set<Integer> searchBackward(Graph graph, int vertex, Set<Integer> visited) {
-    Set<Integer> reached = (visited == null) ? 
-        new HashSet<Integer>() : new HashSet<Integer>(visited);
-    reached.add(vertex);
-
-    Queue<Integer> bfs = new LinkedList<Integer>();
-    bfs.add(vertex);
-
-    while (bfs.size() > 0) {
-      int cur = bfs.poll();
-
-      List<Integer> edges = graph.getInEdges(cur);
-
-      for (int edge : edges) {
-        if (!reached.contains(edge)) {
-          reached.add(edge);
-          bfs.add(edge);
-        }
-      }
-    }
-
+  public static long[] searchBackward(Graph graph, int vertex, long[] visited) {
+    long[] reached = BitsetUtils.create(graph.size());
+    new Reachability().searchBackward(graph, vertex, visited, reached);
     return reached;
   }
   
-  public static Set<Integer> searchBackward(Graph graph, int vertex) {
+  public static long[] searchBackward(Graph graph, int vertex) {
     return searchBackward(graph, vertex, null);
   }
 }
@@ -0,0 +1,84 @@
+package main.utils;
+
+/**
+ * Upper bounds on the number of vertices in a simple path through each vertex
+ *
+ * A path visits strongly connected components in topological order and at most
+ * every vertex of each, so the longest path in the condensation weighted by
+ * component size bounds it. The bounds are computed once per component, after
+ * which every lookup is O(1).
+ *
+ * @author Peijin Zhang
+ */
+public class LengthBound {
+  private final Condensation condensation;
+  // Longest weighted path starting in and ending in each component
+  private final int[] down;
+  private final int[] up;
+  private final int max;
+
+  public LengthBound(Condensation condensation) {
+    this.condensation = condensation;
+
+    int count = condensation.componentCount();
+    this.down = new int[count];
+    this.up = new int[count];
+
+    // Successors have lower ids and predecessors higher ids
+    for (int c = 0; c < count; c++) {
+      int best = 0;
+      for (int i = 0; i < condensation.successorCount(c); i++) {
+        best = Math.max(best, down[condensation.successor(c, i)]);
+      }
+      down[c] = condensation.componentSize(c) + best;
+    }
+
+    int max = 0;
+    for (int c = count - 1; c >= 0; c--) {
+      int best = 0;
+      for (int i = 0; i < condensation.predecessorCount(c); i++) {
+        best = Math.max(best, up[condensation.predecessor(c, i)]);
+      }
+      up[c] = condensation.componentSize(c) + best;
+      max = Math.max(max, down[c] + up[c] - condensation.componentSize(c));
+    }
+    this.max = max;
+  }
+
+  public LengthBound(Graph graph) {
+    this(new Condensation(graph));
+  }
+
+  public Graph getGraph() {
+    return condensation.getGraph();
+  }
+
+  /**
+   * Bound on a path starting at a vertex
+   */
+  public int forward(int vertex) {
+    return down[condensation.getComponent(vertex)];
+  }
+
+  /**
+   * Bound on a path ending at a vertex
+   */
+  public int backward(int vertex) {
+    return up[condensation.getComponent(vertex)];
+  }
+
+  /**
+   * Bound on a path going through a vertex
+   */
+  public int through(int vertex) {
+    int c = condensation.getComponent(vertex);
+    return down[c] + up[c] - condensation.componentSize(c);
+  }
+
+  /**
+   * Bound on the longest path in the graph
+   */
+  public int getMax() {
+    return max;
+  }
+}
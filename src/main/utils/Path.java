@@ -7,69 +7,136 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
 
 
 /**
  * Class for representing a path
  * 
+ * Vertices are kept in a circular array so that both ends can be extended in
+ * constant time, and a path can be cleared and reused without allocating
+ * 
  * @author Peijin Zhang
  */
 public class Path {
   private final Graph graph;
-  private final Set<Integer> visited;
-  private final List<Integer> path;
+  private final long[] visited;
+  // The ith vertex of the path is path[(start + i) % path.length]
+  private final int[] path;
+  private int start;
+  private int size;
   
   public Path(Graph graph) {
     this.graph = graph;
-    this.visited = new HashSet<Integer>();
-    this.path = new LinkedList<Integer>();
+    this.visited = BitsetUtils.create(graph.size());
+    // A simple path can't be longer than the number of vertices
+    this.path = new int[Math.max(1, graph.size())];
+    this.start = 0;
+    this.size = 0;
   }
   
   /**
    * Copies a path
    */
   public Path(Path path) {
-    this.graph = path.graph;
-    this.visited = new HashSet<Integer>(path.visited);
-    this.path = new LinkedList<Integer>(path.path);
+    this(path.graph);
+    copyFrom(path);
+  }
+  
+  /**
+   * Overwrites this path with the contents of another path on the same graph
+   */
+  public void copyFrom(Path other) {
+    if (other.graph != graph) {
+      throw new IllegalArgumentException("Paths must be on the same graph");
+    }
+    BitsetUtils.copy(other.visited, visited);
+    for (int x = 0; x < other.size; x++) {
+      path[x] = other.get(x);
+    }
+    start = 0;
+    size = other.size;
   }
   
   public void clear() {
-    visited.clear();
-    path.clear();
+    for (int x = 0; x < size; x++) {
+      BitsetUtils.clear(visited, get(x));
+    }
+    start = 0;
+    size = 0;
+  }
+  
+  public Graph getGraph() {
+    return graph;
   }
   
   public boolean contains(int vertex) {
-    return visited.contains(vertex);
+    return BitsetUtils.get(visited, vertex);
   }
   
   public void appendForward(int vertex) {
-    visited.add(vertex);
-    path.add(vertex);
+    if (size == path.length) {
+      throw new IllegalStateException("Path is longer than the graph");
+    }
+    BitsetUtils.set(visited, vertex);
+    path[index(size)] = vertex;
+    size++;
   }
   
   public void appendBackward(int vertex) {
-    visited.add(vertex);
-    path.add(0, vertex);
+    if (size == path.length) {
+      throw new IllegalStateException("Path is longer than the graph");
+    }
+    BitsetUtils.set(visited, vertex);
+    start = (start == 0) ? path.length - 1 : start - 1;
+    path[start] = vertex;
+    size++;
+  }
+  
+  /**
+   * Removes and returns the head of the path
+   */
+  public int removeForward() {
+    int vertex = getHead();
+    BitsetUtils.clear(visited, vertex);
+    size--;
+    return vertex;
+  }
+
+  /**
+   * Removes and returns the tail of the path
+   */
+  public int removeBackward() {
+    int vertex = getTail();
+    BitsetUtils.clear(visited, vertex);
+    start = (start + 1 == path.length) ? 0 : start + 1;
+    size--;
+    return vertex;
+  }
+  
+  /**
+   * Returns the ith vertex from the tail of the path
+   */
+  public int get(int x) {
+    return path[index(x)];
   }
   
   public int getHead() {
-    return path.get(path.size() - 1);
+    return get(size - 1);
   }
   
   public int getTail() {
-    return path.get(0);
+    return get(0);
   }
   
   public int size() {
-    return path.size();
+    return size;
   }
   
-  public Set<Integer> getVisited() {
+  /**
+   * Returns the bitset of vertices on this path, must not be modified
+   */
+  public long[] getVisited() {
     return visited;
   }
   
@@ -77,14 +144,18 @@ public class Path {
    * Returns a list of the movie names in this path
    */
   public List<String> toStringPath() {
-    List<String> names = new ArrayList<String>(path.size());
-    List<String> vertices = graph.getVertices();
-    for (int vertex : path) {
-      names.add(vertices.get(vertex));
+    List<String> names = new ArrayList<String>(size);
+    for (int x = 0; x < size; x++) {
+      names.add(graph.getVertex(get(x)));
     }
     return names;
   }
   
+  private int index(int x) {
+    int index = start + x;
+    return (index >= path.length) ? index - path.length : index;
+  }
+  
   /*
    * Result file format
    * 
@@ -101,14 +172,14 @@ public class Path {
    */
   public void writeToFile(String filename) throws IOException {
     PrintWriter out = new PrintWriter(new FileWriter(new File(filename), true));
-    out.println("Path Length: " + path.size());
+    out.println("Path Length: " + size);
 
     StringBuffer buf = new StringBuffer();
-    for (int x = 0; x < path.size(); x++) {
+    for (int x = 0; x < size; x++) {
       if (x != 0) {
         buf.append(" ");
       }
-      buf.append(path.get(x));
+      buf.append(get(x));
     }
     out.println(buf.toString());
 
@@ -127,8 +198,13 @@ public class Path {
     List<Path> results = new ArrayList<Path>();
     
     while (br.readLine() != null) {
+      String line = br.readLine();
+      if (line == null) {
+        // Cut off while being written
+        break;
+      }
       Path path = new Path(graph);
-      String[] vertices = br.readLine().split(" ");
+      String[] vertices = line.split(" ");
       for (String vertex : vertices) {
         path.appendForward(Integer.parseInt(vertex));
       }
@@ -1,6 +1,5 @@
 package main.utils;
 
-import java.util.List;
 import java.util.Random;
 
 
@@ -22,14 +21,24 @@ public class PathUtils {
   /**
    * Converts a path from a subgraph into its represntation in a larger graph
    * 
+   * If the subgraph was taken from the larger graph the recorded vertex ids are
+   * used, otherwise vertices are matched by name
+   * 
    * REQUIRES: Larger graph must contain the smaller graph as a subgraph
    */
   public static Path convertPath(Graph supergraph, Path path) {
     Path newpath = new Path(supergraph);
-    List<String> vertices = supergraph.getVertices();
-    
-    for (String vertex : path.toStringPath()) {
-      newpath.appendForward(vertices.indexOf(vertex));
+
+    Graph graph = path.getGraph();
+    boolean taken = graph.isTakenFrom(supergraph);
+    for (int x = 0; x < path.size(); x++) {
+      int vertex = path.get(x);
+      if (taken) {
+        vertex = graph.getIdIn(supergraph, vertex);
+      } else {
+        vertex = supergraph.indexOf(graph.getVertex(vertex));
+      }
+      newpath.appendForward(vertex);
     }
     
     return newpath;
@@ -0,0 +1,394 @@
+package main.utils;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Breadth first reachability search on bitsets
+ *
+ * Keeps a reusable int array queue so that repeated searches do not allocate.
+ * Not thread safe, each walker should have its own instance.
+ *
+ * Searches pick a direction for each level. Usually each frontier vertex
+ * pushes along its edges. Once the frontier has more edges than all the
+ * vertices not reached yet, as near the end of a search through a dense
+ * graph, it is kept as a bitset and each vertex not reached pulls instead,
+ * scanning its edges the other way until it finds one from the frontier.
+ *
+ * Shared searches remember the set they find from each vertex. A remembered
+ * set stays exact as vertices are added to the mask, as long as none of them
+ * was reached, so while the mask only grows, as it does along a walk, the
+ * sets are kept until one of their vertices is taken. A shared search that
+ * reaches a vertex with a set adds the whole set instead of searching through
+ * it again, so each step of a walk only searches what the last step changed.
+ *
+ * Remembered sets, the mask they were found with and the bitset scratch
+ * space are kept per graph, so walkers switching between graphs keep them
+ * and don't reallocate them on every switch.
+ *
+ * Shared searches can also go through a ReachabilityCache shared with other
+ * walkers, which remembers searches from one walk to the next.
+ *
+ * @author Peijin Zhang
+ */
+public class Reachability {
+  // Most words of remembered sets kept in one direction for one graph
+  private static final int MAX_SHARED_WORDS = 1 << 21;
+
+  private int[] queue;
+  // Vertices expanded by all searches so far
+  private long visited;
+
+  // One per graph searched on
+  private final Map<Graph, Shared> shared;
+  private Shared current;
+
+  // Null if not caching
+  private ReachabilityCache cache;
+  private final ReachabilityCache.Key cacheKey;
+
+  public Reachability() {
+    this.queue = new int[0];
+    this.visited = 0;
+    this.shared = new IdentityHashMap<Graph, Shared>();
+    this.current = null;
+    this.cache = null;
+    this.cacheKey = new ReachabilityCache.Key();
+  }
+
+  /**
+   * Looks up and stores shared searches on the cache's graph in a cache
+   */
+  public void setCache(ReachabilityCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Number of vertices visited by all searches so far
+   */
+  public long getVisited() {
+    return visited;
+  }
+
+  /**
+   * Searches using outgoing edges from a vertex, never entering vertices in mask
+   *
+   * Writes mask plus the vertices reached into reached and returns its size
+   */
+  public int searchForward(Graph graph, int vertex, long[] mask, long[] reached) {
+    return search(graph, vertex, mask, reached, true, null);
+  }
+
+  /**
+   * Searches using ingoing edges from a vertex, never entering vertices in mask
+   *
+   * Writes mask plus the vertices reached into reached and returns its size
+   */
+  public int searchBackward(Graph graph, int vertex, long[] mask, long[] reached) {
+    return search(graph, vertex, mask, reached, false, null);
+  }
+
+  /**
+   * Searches like searchForward, using and remembering the sets of earlier
+   * shared searches
+   */
+  public int searchForwardShared(Graph graph, int vertex, long[] mask, long[] reached) {
+    Shared state = updateShared(graph, mask);
+    return search(graph, vertex, mask, reached, true, state.forward);
+  }
+
+  /**
+   * Searches like searchBackward, using and remembering the sets of earlier
+   * shared searches
+   */
+  public int searchBackwardShared(Graph graph, int vertex, long[] mask, long[] reached) {
+    Shared state = updateShared(graph, mask);
+    return search(graph, vertex, mask, reached, false, state.backward);
+  }
+
+  private Shared getShared(Graph graph) {
+    if (current == null || current.graph != graph) {
+      current = shared.get(graph);
+      if (current == null) {
+        current = new Shared(graph);
+        shared.put(graph, current);
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Forgets the remembered sets on a graph no longer exact under a new mask,
+   * or all of them if the mask lost any vertex
+   */
+  private Shared updateShared(Graph graph, long[] mask) {
+    Shared state = getShared(graph);
+    int words = BitsetUtils.words(graph.size());
+    long[] sharedMask = state.mask;
+    SharedSets forwardSets = state.forward;
+    SharedSets backwardSets = state.backward;
+
+    for (int w = 0; w < words; w++) {
+      long now = (mask == null) ? 0 : mask[w];
+      long added = now & ~sharedMask[w];
+      if ((sharedMask[w] & ~now) != 0) {
+        // Removing from the mask can make any set bigger
+        forwardSets.clear();
+        backwardSets.clear();
+        if (mask == null) {
+          BitsetUtils.clear(sharedMask);
+        } else {
+          BitsetUtils.copy(mask, sharedMask);
+        }
+        return state;
+      }
+      while (added != 0) {
+        int vertex = (w << 6) + Long.numberOfTrailingZeros(added);
+        forwardSets.removeReaching(vertex);
+        backwardSets.removeReaching(vertex);
+        added &= added - 1;
+      }
+      sharedMask[w] = now;
+    }
+    return state;
+  }
+
+  private int search(Graph graph, int vertex, long[] mask, long[] reached, boolean forward,
+      SharedSets sets) {
+    int count;
+    if (mask == null) {
+      BitsetUtils.clear(reached);
+      count = 0;
+    } else {
+      BitsetUtils.copy(mask, reached);
+      count = BitsetUtils.cardinality(mask);
+    }
+
+    if (sets != null && sets.get(vertex) != null) {
+      BitsetUtils.or(reached, sets.get(vertex));
+      return BitsetUtils.cardinality(reached);
+    }
+
+    boolean cached = sets != null && cache != null && cache.getGraph() == graph
+        && mask != null && cache.accepts(count);
+    if (cached) {
+      int size = cache.get(cacheKey, vertex, forward, mask, reached);
+      if (size >= 0) {
+        sets.put(vertex, reached);
+        return size;
+      }
+    }
+
+    int size = graph.size();
+    if (queue.length < size) {
+      queue = new int[size];
+    }
+    Shared state = getShared(graph);
+    if (state.frontier.length != reached.length) {
+      state.frontier = new long[reached.length];
+      state.next = new long[reached.length];
+    }
+    long[] frontier = state.frontier;
+    long[] next = state.next;
+
+    if (!BitsetUtils.get(reached, vertex)) {
+      BitsetUtils.set(reached, vertex);
+      count++;
+    }
+
+    // The frontier is queue[head, tail) when pushing, or the frontier bitset
+    // when pulling, and has frontierEdges edges going forward
+    int head = 0;
+    int tail = 0;
+    queue[tail++] = vertex;
+    int frontierSize = 1;
+    long frontierEdges = forward ? graph.outDegree(vertex) : graph.inDegree(vertex);
+    boolean pulling = false;
+    boolean absorbed = false;
+
+    while (frontierSize > 0) {
+      // Pulling scans about the edges of every vertex not reached yet, taken
+      // at the average degree, while pushing scans the frontier's edges
+      boolean pull = frontierEdges * size > (long) (size - count) * graph.edgeCount();
+      if (pull && !pulling) {
+        BitsetUtils.clear(frontier);
+        for (int x = head; x < tail; x++) {
+          BitsetUtils.set(frontier, queue[x]);
+        }
+      } else if (!pull && pulling) {
+        head = 0;
+        tail = 0;
+        for (int w = 0; w < frontier.length; w++) {
+          long word = frontier[w];
+          while (word != 0) {
+            queue[tail++] = (w << 6) + Long.numberOfTrailingZeros(word);
+            word &= word - 1;
+          }
+        }
+      }
+      pulling = pull;
+      visited += frontierSize;
+      frontierEdges = 0;
+
+      if (pulling) {
+        BitsetUtils.clear(next);
+        for (int w = 0; w < reached.length; w++) {
+          long unreached = ~reached[w];
+          while (unreached != 0) {
+            int cur = (w << 6) + Long.numberOfTrailingZeros(unreached);
+            if (cur >= size) {
+              break;
+            }
+            unreached &= unreached - 1;
+
+            int degree = forward ? graph.inDegree(cur) : graph.outDegree(cur);
+            for (int y = 0; y < degree; y++) {
+              int edge = forward ? graph.inEdge(cur, y) : graph.outEdge(cur, y);
+              if (BitsetUtils.get(frontier, edge)) {
+                long[] set = (sets == null) ? null : sets.get(cur);
+                if (set != null) {
+                  BitsetUtils.or(reached, set);
+                  unreached &= ~reached[w];
+                  absorbed = true;
+                } else {
+                  BitsetUtils.set(next, cur);
+                  frontierEdges += forward ? graph.outDegree(cur) : graph.inDegree(cur);
+                }
+                break;
+              }
+            }
+          }
+        }
+
+        long[] swap = frontier;
+        frontier = next;
+        next = swap;
+        frontierSize = BitsetUtils.advance(frontier, reached);
+        count += frontierSize;
+        continue;
+      }
+
+      int end = tail;
+      while (head < end) {
+        int cur = queue[head++];
+
+        int degree = forward ? graph.outDegree(cur) : graph.inDegree(cur);
+        for (int y = 0; y < degree; y++) {
+          int edge = forward ? graph.outEdge(cur, y) : graph.inEdge(cur, y);
+          if (!BitsetUtils.get(reached, edge)) {
+            long[] set = (sets == null) ? null : sets.get(edge);
+            if (set != null) {
+              // Everything reachable from edge is in its set already
+              BitsetUtils.or(reached, set);
+              absorbed = true;
+              continue;
+            }
+            BitsetUtils.set(reached, edge);
+            queue[tail++] = edge;
+            frontierEdges += forward ? graph.outDegree(edge) : graph.inDegree(edge);
+            count++;
+          }
+        }
+      }
+      frontierSize = tail - head;
+    }
+
+    if (absorbed) {
+      count = BitsetUtils.cardinality(reached);
+    }
+    if (sets != null) {
+      sets.put(vertex, reached);
+    }
+    if (cached) {
+      cache.put(vertex, forward, mask, reached, count);
+    }
+    return count;
+  }
+
+  /**
+   * Remembered sets, the mask they were found with and scratch bitsets for
+   * searches on one graph
+   */
+  private static class Shared {
+    private final Graph graph;
+    private final long[] mask;
+    private final SharedSets forward;
+    private final SharedSets backward;
+    private long[] frontier;
+    private long[] next;
+
+    public Shared(Graph graph) {
+      int words = BitsetUtils.words(graph.size());
+      this.graph = graph;
+      this.mask = new long[words];
+      this.forward = new SharedSets(graph.size(), words);
+      this.backward = new SharedSets(graph.size(), words);
+      this.frontier = new long[words];
+      this.next = new long[words];
+    }
+  }
+
+  /**
+   * Sets remembered in one direction, by the vertex searched from
+   */
+  private static class SharedSets {
+    private final long[][] sets;
+    private final boolean[] valid;
+    // Vertices with valid sets, in no order
+    private final int[] members;
+    private int count;
+    private final int words;
+    private int allocated;
+
+    public SharedSets(int size, int words) {
+      this.sets = new long[size][];
+      this.valid = new boolean[size];
+      this.members = new int[size];
+      this.count = 0;
+      this.words = words;
+      this.allocated = 0;
+    }
+
+    public void clear() {
+      for (int x = 0; x < count; x++) {
+        valid[members[x]] = false;
+      }
+      count = 0;
+    }
+
+    public long[] get(int vertex) {
+      return valid[vertex] ? sets[vertex] : null;
+    }
+
+    public void put(int vertex, long[] reached) {
+      if (sets[vertex] == null) {
+        if (allocated + words > MAX_SHARED_WORDS) {
+          return;
+        }
+        sets[vertex] = new long[words];
+        allocated += words;
+      }
+      BitsetUtils.copy(reached, sets[vertex]);
+      if (!valid[vertex]) {
+        valid[vertex] = true;
+        members[count++] = vertex;
+      }
+    }
+
+    /**
+     * Forgets every set that reaches a vertex just added to the mask
+     */
+    public void removeReaching(int vertex) {
+      int kept = 0;
+      for (int x = 0; x < count; x++) {
+        int member = members[x];
+        if (BitsetUtils.get(sets[member], vertex)) {
+          valid[member] = false;
+        } else {
+          members[kept++] = member;
+        }
+      }
+      count = kept;
+    }
+  }
+}
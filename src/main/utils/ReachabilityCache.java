@@ -0,0 +1,199 @@
+package main.utils;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of reachability searches shared by all walkers on a graph
+ *
+ * Walks start over from a few vertices again and again, so the first steps of
+ * many walks search from the same vertex with the same path as the mask.
+ * Results are keyed on the vertex, the direction and the mask. The mask is
+ * found by a 64 bit hash and then compared in full, so a hit is always exact.
+ *
+ * Only masks of at most maxMask vertices are cached, since longer paths rarely
+ * come up twice. Entries are split over stripes by key, each an LRU map
+ * behind its own lock, and the least recently used entry of a stripe is
+ * evicted once the stripe holds its share of the capacity.
+ *
+ * @author Peijin Zhang
+ */
+public class ReachabilityCache {
+  // Number of independently locked stripes, a power of two
+  private static final int STRIPES = 16;
+
+  private final Graph graph;
+  private final int maxMask;
+  private final int words;
+  private final Stripe[] stripes;
+
+  /**
+   * Creates a cache using at most about the given number of megabytes
+   */
+  public ReachabilityCache(Graph graph, int megabytes, int maxMask) {
+    this.graph = graph;
+    this.maxMask = maxMask;
+    this.words = BitsetUtils.words(graph.size());
+
+    // Each entry holds a mask and a result plus some overhead
+    long entryBytes = 2 * (16 + 8L * words) + 96;
+    long entries = Math.max(STRIPES, megabytes * (1L << 20) / entryBytes);
+    this.stripes = new Stripe[STRIPES];
+    for (int x = 0; x < STRIPES; x++) {
+      stripes[x] = new Stripe((int) Math.min(Integer.MAX_VALUE, entries / STRIPES));
+    }
+  }
+
+  public Graph getGraph() {
+    return graph;
+  }
+
+  /**
+   * Whether a search with a mask of this many vertices is worth caching
+   */
+  public boolean accepts(int maskSize) {
+    return maskSize <= maxMask;
+  }
+
+  /**
+   * Copies the cached result of a search into reached and returns its size,
+   * or returns -1 if it isn't cached. probe is reused between lookups.
+   */
+  public int get(Key probe, int vertex, boolean forward, long[] mask, long[] reached) {
+    probe.set(vertex, forward, mask);
+    Stripe stripe = stripes[probe.stripe()];
+    synchronized (stripe) {
+      Result result = stripe.map.get(probe);
+      if (result == null) {
+        stripe.misses++;
+        return -1;
+      }
+      stripe.hits++;
+      BitsetUtils.copy(result.reached, reached);
+      return result.count;
+    }
+  }
+
+  /**
+   * Caches the result of a search, copying the mask and result
+   */
+  public void put(int vertex, boolean forward, long[] mask, long[] reached, int count) {
+    Key key = new Key();
+    key.set(vertex, forward, Arrays.copyOf(mask, words));
+    Result result = new Result(Arrays.copyOf(reached, words), count);
+    Stripe stripe = stripes[key.stripe()];
+    synchronized (stripe) {
+      stripe.map.put(key, result);
+    }
+  }
+
+  public long getHits() {
+    long hits = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        hits += stripe.hits;
+      }
+    }
+    return hits;
+  }
+
+  public long getMisses() {
+    long misses = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        misses += stripe.misses;
+      }
+    }
+    return misses;
+  }
+
+  public long getEvictions() {
+    long evictions = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        evictions += stripe.evictions;
+      }
+    }
+    return evictions;
+  }
+
+  public int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.map.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Key of a search. Lookups reuse one key pointing at the live mask, stored
+   * keys own a copy of theirs.
+   */
+  public static class Key {
+    private int vertex;
+    private boolean forward;
+    private long[] mask;
+    private long hash;
+
+    private void set(int vertex, boolean forward, long[] mask) {
+      this.vertex = vertex;
+      this.forward = forward;
+      this.mask = mask;
+      this.hash = BitsetUtils.hash(mask) * 31 + vertex * 2 + (forward ? 1 : 0);
+    }
+
+    private int stripe() {
+      return (int) (hash >>> 32) & (STRIPES - 1);
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return hash == key.hash && vertex == key.vertex && forward == key.forward
+          && Arrays.equals(mask, key.mask);
+    }
+  }
+
+  private static class Result {
+    private final long[] reached;
+    private final int count;
+
+    public Result(long[] reached, int count) {
+      this.reached = reached;
+      this.count = count;
+    }
+  }
+
+  private static class Stripe {
+    private final LinkedHashMap<Key, Result> map;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public Stripe(final int capacity) {
+      this.map = new LinkedHashMap<Key, Result>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+          if (size() > capacity) {
+            evictions++;
+            return true;
+          }
+          return false;
+        }
+      };
+    }
+  }
+}
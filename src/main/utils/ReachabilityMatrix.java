@@ -0,0 +1,189 @@
+package main.utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Precomputed forward and backward reachability for every vertex of a graph
+ * 
+ * All vertices in a strongly connected component reach the same set, so one
+ * bitset is stored per component. Closures are built bottom up over the
+ * condensation DAG, one level at a time, with each level split over a
+ * ForkJoinPool. The matrix is read only once built and can be shared between
+ * threads.
+ * 
+ * @author Peijin Zhang
+ */
+public class ReachabilityMatrix {
+  // Rows per fork join task
+  private static final int TASK_ROWS = 16;
+
+  private final Condensation condensation;
+  private final int words;
+
+  // forward[c] is the set of vertices reachable from component c, including c
+  private final long[][] forward;
+  // backward[c] is the set of vertices that can reach component c, including c
+  private final long[][] backward;
+
+  public ReachabilityMatrix(Condensation condensation, ForkJoinPool pool) {
+    this.condensation = condensation;
+    this.words = BitsetUtils.words(condensation.getGraph().size());
+
+    int count = condensation.componentCount();
+    this.forward = new long[count][];
+    this.backward = new long[count][];
+
+    pool.invoke(new RecursiveAction() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected void compute() {
+        invokeAll(new Closure(true), new Closure(false));
+      }
+    });
+  }
+
+  public ReachabilityMatrix(Graph graph, ForkJoinPool pool) {
+    this(new Condensation(graph), pool);
+  }
+
+  public ReachabilityMatrix(Graph graph) {
+    this(graph, GraphUtils.POOL);
+  }
+
+  public Condensation getCondensation() {
+    return condensation;
+  }
+
+  /**
+   * Returns the set of vertices reachable from a vertex, must not be modified
+   */
+  public long[] getForward(int vertex) {
+    return forward[condensation.getComponent(vertex)];
+  }
+
+  /**
+   * Returns the set of vertices reachable from a component, must not be modified
+   */
+  public long[] getComponentForward(int component) {
+    return forward[component];
+  }
+
+  /**
+   * Returns the set of vertices that can reach a component, must not be modified
+   */
+  public long[] getComponentBackward(int component) {
+    return backward[component];
+  }
+
+  /**
+   * Returns the set of vertices that can reach a vertex, must not be modified
+   */
+  public long[] getBackward(int vertex) {
+    return backward[condensation.getComponent(vertex)];
+  }
+
+  /**
+   * Computes one direction of the closure
+   * 
+   * A component's level is one more than the highest level among the components
+   * it depends on, so all rows in a level can be computed at the same time
+   */
+  private class Closure extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean isForward;
+
+    public Closure(boolean isForward) {
+      this.isForward = isForward;
+    }
+
+    @Override
+    protected void compute() {
+      int count = condensation.componentCount();
+
+      // Successors have lower ids than their predecessors, so walk ids upwards
+      // for forward levels and downwards for backward levels
+      int[] level = new int[count];
+      int levels = 0;
+      for (int x = 0; x < count; x++) {
+        int c = isForward ? x : count - 1 - x;
+        int degree = dependencyCount(c);
+        for (int y = 0; y < degree; y++) {
+          level[c] = Math.max(level[c], level[dependency(c, y)] + 1);
+        }
+        levels = Math.max(levels, level[c] + 1);
+      }
+
+      int[] offsets = new int[levels + 1];
+      for (int c = 0; c < count; c++) {
+        offsets[level[c] + 1]++;
+      }
+      for (int l = 0; l < levels; l++) {
+        offsets[l + 1] += offsets[l];
+      }
+      int[] order = new int[count];
+      int[] fill = new int[levels];
+      for (int c = 0; c < count; c++) {
+        order[offsets[level[c]] + fill[level[c]]++] = c;
+      }
+
+      for (int l = 0; l < levels; l++) {
+        new Rows(isForward, order, offsets[l], offsets[l + 1]).invoke();
+      }
+    }
+
+    private int dependencyCount(int c) {
+      return isForward ? condensation.successorCount(c) : condensation.predecessorCount(c);
+    }
+
+    private int dependency(int c, int index) {
+      return isForward ? condensation.successor(c, index) : condensation.predecessor(c, index);
+    }
+  }
+
+  /**
+   * Computes the rows for order[from] to order[to - 1], all in one level
+   */
+  private class Rows extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean isForward;
+    private final int[] order;
+    private final int from;
+    private final int to;
+
+    public Rows(boolean isForward, int[] order, int from, int to) {
+      this.isForward = isForward;
+      this.order = order;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > TASK_ROWS) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new Rows(isForward, order, from, mid), new Rows(isForward, order, mid, to));
+        return;
+      }
+
+      long[][] rows = isForward ? forward : backward;
+      for (int x = from; x < to; x++) {
+        int c = order[x];
+        long[] row = new long[words];
+        for (int m = 0; m < condensation.componentSize(c); m++) {
+          BitsetUtils.set(row, condensation.member(c, m));
+        }
+
+        int degree = isForward ? condensation.successorCount(c) : condensation.predecessorCount(c);
+        for (int y = 0; y < degree; y++) {
+          int d = isForward ? condensation.successor(c, y) : condensation.predecessor(c, y);
+          BitsetUtils.or(row, rows[d]);
+        }
+        rows[c] = row;
+      }
+    }
+  }
+}
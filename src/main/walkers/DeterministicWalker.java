@@ -1,10 +1,6 @@
 package main.walkers;
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
 
 import main.utils.Graph;
 
@@ -19,9 +15,8 @@ import main.utils.Graph;
 public class DeterministicWalker extends SlowWalker {
   private int index;
 
-  public DeterministicWalker(Graph graph, List<Integer> initstates, String filename,
-      AtomicInteger maxLength, Lock fileLock) {
-    super(graph, initstates, filename, maxLength, fileLock);
+  public DeterministicWalker(Graph graph, List<Integer> initstates, ResultPublisher results) {
+    super(graph, initstates, results);
     this.index = 0;
   }
 
@@ -32,30 +27,7 @@ public class DeterministicWalker extends SlowWalker {
     return initstates.get(index++);
   }
 
-  protected CandidatePair getNext(List<Candidate> outCandidates, List<Candidate> inCandidates) {
-    CandidatePair move = null;
-    int size = -1;
-    for (int x = 0; x < outCandidates.size(); x++) {
-      for (int y = 0; y < inCandidates.size(); y++) {
-        if (x == 0 || y == 0 || outCandidates.get(x).node != inCandidates.get(y).node) {
-          Set<Integer> reachable = new HashSet<Integer>();
-
-          if (x != 0) {
-            reachable.addAll(outCandidates.get(x).reachable);
-          }
-
-          if (y != 0) {
-            reachable.addAll(inCandidates.get(y).reachable);
-          }
-
-          if (reachable.size() >= size) {
-            size = reachable.size();
-            move = new CandidatePair(outCandidates.get(x), inCandidates.get(y));
-          }
-        }
-      }
-    }
-    return move;
+  protected int getNext(List<Candidate> outCandidates, List<Candidate> inCandidates) {
+    return pickLast(scorePairs(outCandidates, inCandidates));
   }
-
 }
@@ -0,0 +1,662 @@
+package main.walkers;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import main.utils.BitsetUtils;
+import main.utils.Graph;
+import main.utils.LengthBound;
+import main.utils.Path;
+import main.utils.Reachability;
+
+/**
+ * Exact branch and bound search for the longest simple path
+ *
+ * Paths are built the same way two way walkers build them, from a start vertex
+ * forwards and then backwards. Every path is only searched from its lowest
+ * vertex, so the search from a start never enters vertices below it. At each
+ * step the path is bounded by the vertices still reachable from its ends and by
+ * the length bound, and cut off if it can't get longer than the longest known.
+ *
+ * The search runs in passes looking for paths of at least a target length. The
+ * first pass targets the length bound, which is cheap to rule out, and each
+ * failed pass lowers the upper bound and moves the target twice as far down
+ * until it reaches the longest known path. Once a pass at that target finishes
+ * the longest path is proven.
+ *
+ * The depth first search keeps an explicit stack so that it can be paused after
+ * any number of steps, and its state saved as the untried branches of the stack
+ * so that it can be picked up again. The search can also be limited to the subtree below a prefix for a
+ * single target, and give away the untried branches of its stack as prefixes,
+ * which is how ParallelExactWalker shares the work. Not thread safe.
+ *
+ * @author Peijin Zhang
+ */
+public class ExactSearch {
+  // Child which turns the search from extending forwards to extending backwards
+  private static final int TURN = -1;
+
+  // How each stack frame was reached
+  private static final byte START = 0;
+  private static final byte FORWARD = 1;
+  private static final byte BACKWARD = 2;
+  private static final byte TURNED = 3;
+
+  private final Graph graph;
+  private final LengthBound lengthBound;
+  // Longest path known by anyone
+  private final AtomicInteger maxLength;
+
+  private final Reachability reachability;
+  private final Path path;
+  private final Path best;
+  // Vertices on the path or below the start, which the search never enters
+  private final long[] mask;
+  private final long[] forward;
+  private final long[] backward;
+
+  // Stack of frames, each with a range of children in the children array
+  private final byte[] moves;
+  private final int[] moveVertices;
+  private final int[] childStart;
+  private final int[] childNext;
+  private final int[] childEnd;
+  private int[] children;
+  private int childCount;
+  private int depth;
+  // Frames below this belong to the prefix of a subtree search
+  private int floor;
+  private boolean subtree;
+  // Subtrees to search before moving to the next start, all from the current start
+  private final List<Prefix> pending;
+
+  private int start;
+  private int target;
+  private int upper;
+  private int step;
+  private int passes;
+  private long steps;
+  private boolean finished;
+
+  public ExactSearch(Graph graph, LengthBound lengthBound, AtomicInteger maxLength) {
+    this.graph = graph;
+    this.lengthBound = lengthBound;
+    this.maxLength = maxLength;
+
+    this.reachability = new Reachability();
+    this.path = new Path(graph);
+    this.best = new Path(graph);
+    this.mask = BitsetUtils.create(graph.size());
+    this.forward = BitsetUtils.create(graph.size());
+    this.backward = BitsetUtils.create(graph.size());
+
+    // A path of every vertex plus the start and the turn
+    int frames = graph.size() + 2;
+    this.moves = new byte[frames];
+    this.moveVertices = new int[frames];
+    this.childStart = new int[frames];
+    this.childNext = new int[frames];
+    this.childEnd = new int[frames];
+    this.children = new int[Math.max(16, graph.size())];
+    this.childCount = 0;
+    this.depth = 0;
+    this.floor = 0;
+    this.subtree = false;
+    this.pending = new ArrayList<Prefix>();
+
+    this.start = -1;
+    this.upper = Math.min(lengthBound.getMax(), graph.size());
+    this.step = 1;
+    this.target = upper;
+    this.passes = 0;
+    this.steps = 0;
+    this.finished = upper <= maxLength.get();
+  }
+
+  /**
+   * Limits the search to paths starting with the given prefix which reach the
+   * target, after which it is finished once that subtree has been searched
+   *
+   * Returns true if the prefix itself is longer than maxLength
+   */
+  public boolean beginSubtree(int target, Prefix prefix) {
+    while (depth > 0) {
+      pop();
+    }
+    BitsetUtils.clear(mask);
+    best.clear();
+
+    this.target = target;
+    this.subtree = true;
+    this.finished = false;
+    this.start = prefix.vertices[0];
+    for (int x = 0; x < start; x++) {
+      BitsetUtils.set(mask, x);
+    }
+
+    int last = prefix.moves.length - 1;
+    for (int x = 0; x <= last; x++) {
+      push(prefix.moves[x], prefix.vertices[x], x == last);
+    }
+    floor = last;
+    return improved();
+  }
+
+  /**
+   * Searches for at most the given number of steps
+   *
+   * Returns true if a path longer than maxLength was found, see getBest
+   */
+  public boolean search(long budget) {
+    while (budget > 0 && !finished) {
+      if (depth == floor) {
+        if (subtree) {
+          finished = true;
+        } else if (!pending.isEmpty()) {
+          // The prefix itself was an untried branch, so it is a step like any other
+          beginPending(pending.remove(0));
+          budget--;
+          steps++;
+          if (improved()) {
+            return true;
+          }
+        } else if (nextStart()) {
+          budget--;
+          steps++;
+          if (improved()) {
+            return true;
+          }
+        } else {
+          finishPass();
+        }
+        continue;
+      }
+
+      int top = depth - 1;
+      if (childNext[top] == childEnd[top]) {
+        pop();
+        continue;
+      }
+
+      int child = children[childNext[top]++];
+      push(childMove(top, child), child, true);
+      budget--;
+      steps++;
+      if (improved()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gives away untried branches as prefixes, which this search will then skip
+   *
+   * Only the branches of the shallowest frame that has any are given away,
+   * unless all is set. Returns the number of prefixes added.
+   */
+  public int donate(List<Prefix> prefixes, boolean all) {
+    return listBranches(prefixes, all, true);
+  }
+
+  private int listBranches(List<Prefix> prefixes, boolean all, boolean remove) {
+    int added = 0;
+    for (int frame = floor; frame < depth; frame++) {
+      for (int x = childNext[frame]; x < childEnd[frame]; x++) {
+        int child = children[x];
+        byte[] prefixMoves = Arrays.copyOf(moves, frame + 2);
+        int[] prefixVertices = Arrays.copyOf(moveVertices, frame + 2);
+        prefixMoves[frame + 1] = childMove(frame, child);
+        prefixVertices[frame + 1] = child;
+        prefixes.add(new Prefix(prefixMoves, prefixVertices));
+        added++;
+      }
+      if (remove) {
+        childNext[frame] = childEnd[frame];
+      }
+      if (added > 0 && !all) {
+        break;
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Longest path found by this search, reused as the search goes on
+   */
+  public Path getBest() {
+    return best;
+  }
+
+  /**
+   * Length of the longest path known to anyone
+   */
+  public int getIncumbent() {
+    return Math.max(maxLength.get(), best.size());
+  }
+
+  /**
+   * No path is longer than this, proven by the passes finished so far
+   */
+  public int getUpperBound() {
+    return Math.max(upper, getIncumbent());
+  }
+
+  public int getTarget() {
+    return target;
+  }
+
+  public int getPasses() {
+    return passes;
+  }
+
+  public long getSteps() {
+    return steps;
+  }
+
+  /**
+   * True once the longest path is proven to be the incumbent, or once the
+   * subtree has been searched when searching a subtree
+   */
+  public boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * Records where the search is, enough to carry on from there with loadState
+   *
+   * Only call between searches, from the thread running the search
+   */
+  public void saveState(Properties state) {
+    state.setProperty("passes", Integer.toString(passes));
+    state.setProperty("target", Integer.toString(target));
+    state.setProperty("upper", Integer.toString(upper));
+    state.setProperty("step", Integer.toString(step));
+    state.setProperty("start", Integer.toString(start));
+    state.setProperty("steps", Long.toString(steps));
+
+    // Branches on the stack, then subtrees left from before a resume
+    List<Prefix> subtrees = new ArrayList<Prefix>();
+    listBranches(subtrees, true, false);
+    subtrees.addAll(pending);
+    state.setProperty("subtrees", Prefix.join(subtrees));
+  }
+
+  /**
+   * Carries on from a state saved by saveState
+   */
+  public void loadState(Properties state) {
+    while (depth > 0) {
+      pop();
+    }
+    floor = 0;
+    BitsetUtils.clear(mask);
+
+    passes = Integer.parseInt(state.getProperty("passes"));
+    target = Integer.parseInt(state.getProperty("target"));
+    upper = Integer.parseInt(state.getProperty("upper"));
+    step = Integer.parseInt(state.getProperty("step"));
+    start = Integer.parseInt(state.getProperty("start"));
+    steps = Long.parseLong(state.getProperty("steps", "0"));
+    finished = upper <= getIncumbent();
+
+    pending.clear();
+    pending.addAll(Prefix.parseAll(state.getProperty("subtrees", "")));
+    for (int x = 0; x < start; x++) {
+      BitsetUtils.set(mask, x);
+    }
+  }
+
+  /**
+   * Writes the bounds and what is left of the search to a file people can read
+   *
+   * The state is one saved by saveState or ParallelExactWalker, with one
+   * subtree on each line.
+   */
+  static void writeFrontier(String filename, Graph graph, Properties state)
+      throws IOException {
+    File file = new File(filename);
+    if (file.getParentFile() != null) {
+      file.getParentFile().mkdirs();
+    }
+
+    PrintWriter out = new PrintWriter(new FileWriter(file));
+    out.println("Graph: " + graph.getName());
+    for (String key : new TreeSet<String>(state.stringPropertyNames())) {
+      if (!key.equals("subtrees")) {
+        out.println(key + ": " + state.getProperty(key));
+      }
+    }
+    List<Prefix> subtrees = Prefix.parseAll(state.getProperty("subtrees", ""));
+    out.println("subtrees: " + subtrees.size());
+    for (Prefix prefix : subtrees) {
+      out.println(prefix);
+    }
+    out.flush();
+    out.close();
+  }
+
+  /**
+   * Paths must reach this length to be worth searching
+   */
+  private int threshold() {
+    return Math.max(target, getIncumbent() + 1);
+  }
+
+  private boolean improved() {
+    if (path.size() > getIncumbent()) {
+      best.copyFrom(path);
+      return true;
+    }
+    return false;
+  }
+
+  private static boolean isBackward(byte move) {
+    return move == BACKWARD || move == TURNED;
+  }
+
+  /**
+   * How taking a child of a frame moves the path
+   */
+  private byte childMove(int frame, int child) {
+    if (child == TURN) {
+      return TURNED;
+    }
+    return isBackward(moves[frame]) ? BACKWARD : FORWARD;
+  }
+
+  /**
+   * Searches a subtree left from before a resume, all of which share the start
+   */
+  private void beginPending(Prefix prefix) {
+    while (depth > 0) {
+      pop();
+    }
+    int last = prefix.moves.length - 1;
+    for (int x = 0; x <= last; x++) {
+      push(prefix.moves[x], prefix.vertices[x], x == last);
+    }
+    floor = last;
+  }
+
+  /**
+   * Moves to the next start vertex that could be on a long enough path
+   */
+  private boolean nextStart() {
+    while (depth > 0) {
+      pop();
+    }
+    floor = 0;
+
+    int threshold = threshold();
+    for (int v = start + 1; v < graph.size(); v++) {
+      if (lengthBound.through(v) >= threshold) {
+        // Vertices below the start are left out of this search
+        for (int x = Math.max(start, 0); x < v; x++) {
+          BitsetUtils.set(mask, x);
+        }
+        start = v;
+        push(START, v, true);
+        return true;
+      }
+    }
+    start = graph.size();
+    return false;
+  }
+
+  /**
+   * Lowers the upper bound after a pass and moves the target down
+   */
+  private void finishPass() {
+    passes++;
+    int incumbent = getIncumbent();
+    // No path reached the target, or got past the incumbent
+    upper = Math.max(target - 1, incumbent);
+
+    start = -1;
+    BitsetUtils.clear(mask);
+    if (upper <= incumbent) {
+      finished = true;
+      return;
+    }
+
+    step = Math.min(step * 2, graph.size());
+    target = Math.max(incumbent + 1, upper - step + 1);
+  }
+
+  /**
+   * Moves the path into a new frame, finding the frame's children if expand is set
+   */
+  private void push(byte move, int vertex, boolean expand) {
+    if (move == START || move == FORWARD) {
+      path.appendForward(vertex);
+      BitsetUtils.set(mask, vertex);
+    } else if (move == BACKWARD) {
+      path.appendBackward(vertex);
+      BitsetUtils.set(mask, vertex);
+    }
+
+    int frame = depth++;
+    moves[frame] = move;
+    moveVertices[frame] = vertex;
+    childStart[frame] = childCount;
+    childNext[frame] = childCount;
+    if (!expand) {
+      // Left to whoever owns the rest of this frame
+    } else if (isBackward(move)) {
+      addBackwardChildren();
+    } else {
+      addForwardChildren();
+    }
+    childEnd[frame] = childCount;
+  }
+
+  private void pop() {
+    int frame = --depth;
+    childCount = childStart[frame];
+    byte move = moves[frame];
+    if (move == START || move == FORWARD) {
+      BitsetUtils.clear(mask, path.removeForward());
+    } else if (move == BACKWARD) {
+      BitsetUtils.clear(mask, path.removeBackward());
+    }
+  }
+
+  /**
+   * Adds the vertices the head can move to, then the turn, if the path can
+   * still reach the threshold
+   */
+  private void addForwardChildren() {
+    int threshold = threshold();
+    int size = path.size();
+    int head = path.getHead();
+    int tail = path.getTail();
+    if (size + lengthBound.forward(head) + lengthBound.backward(tail) - 2 < threshold) {
+      return;
+    }
+
+    // Both sets hold the mask, which is the path and the start vertices below
+    reachability.searchForward(graph, head, mask, forward);
+    int backwardSize = reachability.searchBackward(graph, tail, mask, backward) - start;
+    if (BitsetUtils.orCardinality(forward, backward) - start < threshold) {
+      return;
+    }
+
+    int degree = graph.outDegree(head);
+    for (int y = 0; y < degree; y++) {
+      int edge = graph.outEdge(head, y);
+      if (!BitsetUtils.get(mask, edge)
+          && size + lengthBound.forward(edge) + lengthBound.backward(tail) - 1 >= threshold) {
+        addChild(edge);
+      }
+    }
+    if (backwardSize >= threshold && backwardSize > size) {
+      addChild(TURN);
+    }
+  }
+
+  /**
+   * Adds the vertices the tail can move to if the path can still reach the threshold
+   */
+  private void addBackwardChildren() {
+    int threshold = threshold();
+    int size = path.size();
+    int tail = path.getTail();
+    if (size + lengthBound.backward(tail) - 1 < threshold) {
+      return;
+    }
+    if (reachability.searchBackward(graph, tail, mask, backward) - start < threshold) {
+      return;
+    }
+
+    int degree = graph.inDegree(tail);
+    for (int y = 0; y < degree; y++) {
+      int edge = graph.inEdge(tail, y);
+      if (!BitsetUtils.get(mask, edge) && size + lengthBound.backward(edge) >= threshold) {
+        addChild(edge);
+      }
+    }
+  }
+
+  private void addChild(int child) {
+    if (childCount == children.length) {
+      children = Arrays.copyOf(children, children.length * 2);
+    }
+    children[childCount++] = child;
+  }
+
+  /**
+   * The moves from a start vertex to the root of a subtree of the search
+   *
+   * Written as Sv for the start, Fv and Bv for adding v forwards or backwards
+   * and T for turning to extend backwards.
+   */
+  public static class Prefix {
+    private final byte[] moves;
+    private final int[] vertices;
+
+    private Prefix(byte[] moves, int[] vertices) {
+      this.moves = moves;
+      this.vertices = vertices;
+    }
+
+    /**
+     * The subtree of paths starting at a vertex
+     */
+    public static Prefix of(int start) {
+      return new Prefix(new byte[] {START}, new int[] {start});
+    }
+
+    public int getStart() {
+      return vertices[0];
+    }
+
+    /**
+     * Parses a prefix written by toString
+     */
+    public static Prefix parse(String text) {
+      String[] tokens = text.trim().split(" ");
+      byte[] moves = new byte[tokens.length];
+      int[] vertices = new int[tokens.length];
+      for (int x = 0; x < tokens.length; x++) {
+        char move = tokens[x].charAt(0);
+        if (move == 'T') {
+          moves[x] = TURNED;
+          vertices[x] = TURN;
+          continue;
+        }
+        moves[x] = (move == 'S') ? START : (move == 'F') ? FORWARD : BACKWARD;
+        vertices[x] = Integer.parseInt(tokens[x].substring(1));
+      }
+      if (moves[0] != START) {
+        throw new IllegalArgumentException("Prefix must begin with a start: " + text);
+      }
+      return new Prefix(moves, vertices);
+    }
+
+    /**
+     * Parses prefixes written by join
+     */
+    public static List<Prefix> parseAll(String text) {
+      List<Prefix> prefixes = new ArrayList<Prefix>();
+      for (String prefix : text.split(",")) {
+        if (prefix.trim().length() > 0) {
+          prefixes.add(parse(prefix));
+        }
+      }
+      return prefixes;
+    }
+
+    /**
+     * Writes prefixes separated by commas
+     */
+    public static String join(Collection<Prefix> prefixes) {
+      StringBuilder buf = new StringBuilder();
+      for (Prefix prefix : prefixes) {
+        if (buf.length() > 0) {
+          buf.append(',');
+        }
+        buf.append(prefix);
+      }
+      return buf.toString();
+    }
+
+    /**
+     * Drops prefixes that extend another of the prefixes, since searching the
+     * shorter one covers them
+     */
+    public static List<Prefix> outermost(Collection<Prefix> prefixes) {
+      Map<String, Prefix> byText = new TreeMap<String, Prefix>();
+      for (Prefix prefix : prefixes) {
+        byText.put(prefix.toString(), prefix);
+      }
+
+      // In sorted order everything a prefix covers comes straight after it
+      List<Prefix> outer = new ArrayList<Prefix>();
+      String last = null;
+      for (Map.Entry<String, Prefix> entry : byText.entrySet()) {
+        if (last == null || !entry.getKey().startsWith(last + " ")) {
+          last = entry.getKey();
+          outer.add(entry.getValue());
+        }
+      }
+      return outer;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder buf = new StringBuilder();
+      for (int x = 0; x < moves.length; x++) {
+        if (x > 0) {
+          buf.append(' ');
+        }
+        switch (moves[x]) {
+          case START:
+            buf.append('S').append(vertices[x]);
+            break;
+          case FORWARD:
+            buf.append('F').append(vertices[x]);
+            break;
+          case BACKWARD:
+            buf.append('B').append(vertices[x]);
+            break;
+          default:
+            buf.append('T');
+            break;
+        }
+      }
+      return buf.toString();
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package main.walkers;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import main.utils.Graph;
+import main.utils.LengthBound;
+import main.utils.Path;
+
+/**
+ * Walker that runs an exact search instead of random walks
+ *
+ * Each walk is a slice of an ExactSearch, returning the longest path it has
+ * found. The walker stops itself once no longer path is possible, and writes
+ * the search frontier when it stops so the remaining gap can be seen. Its
+ * state includes the frontier, so a resumed walker carries on the search.
+ *
+ * @author Peijin Zhang
+ */
+public class ExactWalker extends Walker {
+  // Search steps in each walk
+  private static final long STEPS_PER_WALK = 10000;
+
+  private final ExactSearch search;
+  private final String frontierFile;
+  private int passes;
+
+  public ExactWalker(Graph graph, LengthBound lengthBound, String frontierFile,
+      ResultPublisher results) {
+    super(graph, results);
+
+    setLengthBound(lengthBound);
+    this.search = new ExactSearch(graph, lengthBound, maxLength);
+    this.frontierFile = frontierFile;
+    this.passes = 0;
+  }
+
+  public ExactSearch getSearch() {
+    return search;
+  }
+
+  @Override
+  public void loadState(Properties state) {
+    super.loadState(state);
+    search.loadState(state);
+    passes = search.getPasses();
+  }
+
+  @Override
+  protected void saveState(Properties state) {
+    super.saveState(state);
+    search.saveState(state);
+  }
+
+  protected Path walkPath() {
+    search.search(STEPS_PER_WALK);
+
+    if (search.getPasses() != passes) {
+      passes = search.getPasses();
+      System.out.format("Exact pass %d: no path longer than %d, longest found %d%n",
+          passes, search.getUpperBound(), search.getIncumbent());
+    }
+    if (search.isFinished()) {
+      stop();
+    }
+    return search.getBest();
+  }
+
+  @Override
+  public void run() {
+    super.run();
+
+    if (search.isFinished()) {
+      System.out.format("Exact search finished after %d steps, no path longer than %d%n",
+          search.getSteps(), search.getUpperBound());
+    } else {
+      System.out.format("Exact search stopped after %d steps at target %d, gap %d to %d%n",
+          search.getSteps(), search.getTarget(), search.getIncumbent(),
+          search.getUpperBound());
+    }
+
+    try {
+      Properties state = new Properties();
+      search.saveState(state);
+      state.setProperty("finished", Boolean.toString(search.isFinished()));
+      state.setProperty("incumbent", Integer.toString(search.getIncumbent()));
+      ExactSearch.writeFrontier(frontierFile, graph, state);
+    } catch (IOException e) {
+      System.err.println("Error writing to " + frontierFile);
+      e.printStackTrace();
+    }
+  }
+}
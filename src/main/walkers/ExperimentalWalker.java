@@ -1,8 +1,6 @@
 package main.walkers;
 
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
 
 import main.utils.Graph;
 import main.utils.Path;
@@ -15,22 +13,30 @@ import main.utils.PathUtils;
  */
 public class ExperimentalWalker extends SlowWalker {
   // If we're close to 25 from our longest, do extension
-  private static final int EXTENSION_CUTOFF = 25;
+  public static final int EXTENSION_CUTOFF = 25;
   // Extend 10 times and take the best one
   private static final int EXTENSION_ITERATIONS = 10;
 
   private final Graph reduced;
   private final Graph full;
 
-  public ExperimentalWalker(Graph reduced, Graph full, List<Integer> initstates, 
-      String filename, AtomicInteger maxLength, Lock fileLock) {
-    super(reduced, initstates, filename, maxLength, fileLock);
+  public ExperimentalWalker(Graph reduced, Graph full, List<Integer> initstates,
+      ResultPublisher results) {
+    super(reduced, initstates, results);
 
     this.reduced = reduced;
     this.full = full;
     this.exhaustive = false;
   }
 
+  /**
+   * Walks on the reduced graph only need to get close, they are extended after
+   */
+  @Override
+  protected int getLengthCutoff() {
+    return maxLength.get() - EXTENSION_CUTOFF;
+  }
+
   public Path walkPath() {
     Path small = PathUtils.convertPath(full, super.walkPath());
     this.graph = full;
@@ -41,7 +47,7 @@ public class ExperimentalWalker extends SlowWalker {
       for (int x = 0; x < EXTENSION_ITERATIONS; x++) {
         Path path = super.walkPath(small);
         if (path.size() > maxresult.size()) {
-          maxresult = path;
+          maxresult = new Path(path);
         }
       }
     }
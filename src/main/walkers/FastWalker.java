@@ -1,15 +1,11 @@
 package main.walkers;
 
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
 
+import main.utils.BitsetUtils;
 import main.utils.Graph;
 import main.utils.Path;
+import main.utils.ReachabilityMatrix;
 
 /**
  * Random walker for trying to find the longest path
@@ -18,86 +14,54 @@ import main.utils.Path;
  * state lookups at each walk decision extremely fast. However, not all memoized reachable
  * nodes may actually be reachable since certain paths may include already visited nodes
  * 
+ * The memoized sets come from a ReachabilityMatrix which can be shared by all walkers
+ * 
  * @author Peijin Zhang
  */
 public class FastWalker extends TwoWayWalker {
-  private final Set<Integer>[] fReachable;
-  private final Set<Integer>[] bReachable;
-
-  private final Random random;
-
-  private final List<CandidatePair> pairs;
+  private final ReachabilityMatrix reachable;
 
   public FastWalker(Graph graph, List<Integer> initstates,
-      Set<Integer>[] fReachable, Set<Integer>[] bReachable,  String filename,
-      AtomicInteger maxLength, Lock fileLock) {
-    super(graph, initstates, filename, maxLength, fileLock);
+      ReachabilityMatrix reachable, ResultPublisher results) {
+    super(graph, initstates, results);
 
-    this.fReachable = fReachable;
-    this.bReachable = bReachable;
-
-    this.random = new Random(System.nanoTime());
-
-    this.pairs = new ArrayList<CandidatePair>();
+    this.reachable = reachable;
   }
 
   protected int chooseStart() {
     return initstates.get(random.nextInt(initstates.size()));
   }
 
-  protected List<Candidate> getOutCandidates(int head, Path path) {
-    List<Candidate> outCandidates = new ArrayList<Candidate>();
+  protected void getOutCandidates(int head, Path path, List<Candidate> outCandidates) {
     outCandidates.add(null);
-    for (int edge : graph.getOutEdges(head)) {
-      if (!path.contains(edge)) {
-        Set<Integer> reachable = new HashSet<Integer>(fReachable[edge]);
-        reachable.addAll(path.getVisited());
-        outCandidates.add(new Candidate(edge, reachable));
+    int degree = graph.outDegree(head);
+    for (int y = 0; y < degree; y++) {
+      int edge = graph.outEdge(head, y);
+      if (!path.contains(edge) && canBeatForward(edge, path)) {
+        Candidate candidate = newOutCandidate(edge);
+        BitsetUtils.copy(reachable.getForward(edge), candidate.reachable);
+        BitsetUtils.or(candidate.reachable, path.getVisited());
+        outCandidates.add(candidate);
       }
     }
-    return outCandidates;
   }
 
-  protected List<Candidate> getInCandidates(int tail, Path path) {
-    List<Candidate> inCandidates = new ArrayList<Candidate>();
+  protected void getInCandidates(int tail, Path path, List<Candidate> inCandidates) {
     inCandidates.add(null);
-    for (int edge : graph.getInEdges(tail)) {
-      if (!path.contains(edge)) {
-        Set<Integer> reachable = new HashSet<Integer>(bReachable[edge]);
-        reachable.addAll(path.getVisited());
-        inCandidates.add(new Candidate(edge, reachable));
+    int degree = graph.inDegree(tail);
+    for (int y = 0; y < degree; y++) {
+      int edge = graph.inEdge(tail, y);
+      if (!path.contains(edge) && canBeatBackward(edge, path)) {
+        Candidate candidate = newInCandidate(edge);
+        BitsetUtils.copy(reachable.getBackward(edge), candidate.reachable);
+        BitsetUtils.or(candidate.reachable, path.getVisited());
+        inCandidates.add(candidate);
       }
     }
-    return inCandidates;
   }
 
-  protected CandidatePair getNext(List<Candidate> outCandidates, List<Candidate> inCandidates) {
-    pairs.clear();
-    for (int x = 0; x < outCandidates.size(); x++) {
-      for (int y = 0; y < inCandidates.size(); y++) {
-        if (x == 0 || y == 0 || outCandidates.get(x).node != inCandidates.get(y).node) {
-          Set<Integer> reachable = new HashSet<Integer>();
-
-          if (x != 0) {
-            reachable.addAll(outCandidates.get(x).reachable);
-          }
-
-          if (y != 0) {
-            reachable.addAll(inCandidates.get(y).reachable);
-          }
-
-          if (reachable.size() >= maxLength.get()) {
-            pairs.add(new CandidatePair(outCandidates.get(x), inCandidates.get(y)));
-          }
-        }
-      }
-    }
-
-    if (pairs.size() > 0) {
-      int move = random.nextInt(pairs.size());
-      return pairs.get(move);
-    } else {
-      return null;
-    }
+  protected int getNext(List<Candidate> outCandidates, List<Candidate> inCandidates) {
+    scorePairs(outCandidates, inCandidates);
+    return pickAtLeast(maxLength.get());
   }
 }
@@ -0,0 +1,350 @@
+package main.walkers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import main.utils.Graph;
+import main.utils.Path;
+
+/**
+ * Population based walker, one island of an island model search
+ *
+ * Each island keeps a population of the longest paths it has found. A walk
+ * either seeds it with a beam search from a random start, or breeds a new
+ * path from it and walks that on until neither end can move, keeping the new
+ * path if it is longer than the shortest in the population.
+ *
+ * The beam search keeps the best few partial paths at each step. Every move
+ * of both ends of every path in the beam is scored as a slow walker scores
+ * them, by the vertices still reachable from the new ends, and the best
+ * scoring moves make the next beam. Paths are bred by crossover, splicing the
+ * start of one path onto the end of another where they share a vertex, or by
+ * mutation, cutting a random piece off each end of a path.
+ *
+ * Islands run on their own threads and every so often send their best path to
+ * the next island in a ring, see Islands.
+ *
+ * @author Peijin Zhang
+ */
+public class IslandWalker extends SlowWalker {
+  // Partial paths kept at each step of a beam search
+  private static final int BEAM_WIDTH = 8;
+  // Paths kept by each island
+  private static final int POPULATION = 16;
+  // Walks between sending paths to the next island
+  private static final int MIGRATION_INTERVAL = 50;
+  // Chance a walk is a fresh beam search once the population is full
+  private static final double BEAM_RATE = 0.1;
+  // Chance a path is bred by crossover rather than mutation
+  private static final double CROSSOVER_RATE = 0.5;
+  // Most vertices a mutation cuts off each end
+  private static final int MAX_CUT = 20;
+
+  // Null if the island is on its own
+  private Islands islands;
+  private int island;
+  private long generation;
+
+  // Longest first
+  private final List<Path> population;
+
+  // Beam search state reused between walks, see beamWalk
+  private Path[] beam;
+  private Path[] nextBeam;
+  private final int[] moveParent;
+  private final int[] moveHead;
+  private final int[] moveTail;
+  private final long[] moveRank;
+  private final Path best;
+  private final Path child;
+
+  public IslandWalker(Graph graph, List<Integer> initstates, ResultPublisher results) {
+    super(graph, initstates, results);
+
+    this.islands = null;
+    this.island = 0;
+    this.generation = 0;
+    this.population = new ArrayList<Path>(POPULATION);
+
+    this.beam = new Path[BEAM_WIDTH];
+    this.nextBeam = new Path[BEAM_WIDTH];
+    for (int x = 0; x < BEAM_WIDTH; x++) {
+      beam[x] = new Path(graph);
+      nextBeam[x] = new Path(graph);
+    }
+    this.moveParent = new int[BEAM_WIDTH];
+    this.moveHead = new int[BEAM_WIDTH];
+    this.moveTail = new int[BEAM_WIDTH];
+    this.moveRank = new long[BEAM_WIDTH];
+    this.best = new Path(graph);
+    this.child = new Path(graph);
+  }
+
+  /**
+   * Makes this walker island number island of a ring
+   */
+  public void setIslands(Islands islands, int island) {
+    this.islands = islands;
+    this.island = island;
+  }
+
+  /**
+   * Paths only need to get into the population, not beat maxLength
+   */
+  @Override
+  protected int getLengthCutoff() {
+    return (population.size() < POPULATION) ? 0 : population.get(POPULATION - 1).size();
+  }
+
+  @Override
+  public Path walkPath() {
+    generation++;
+    if (islands != null && generation % MIGRATION_INTERVAL == 0) {
+      migrate();
+    }
+
+    Path path;
+    if (population.size() < POPULATION || random.nextDouble() < BEAM_RATE) {
+      path = beamWalk();
+    } else {
+      if (random.nextDouble() >= CROSSOVER_RATE || !crossover()) {
+        mutate();
+      }
+      path = walkPath(child);
+    }
+    addToPopulation(path);
+    return path;
+  }
+
+  /**
+   * Beam search from a random start, returning the longest path it ends with
+   */
+  private Path beamWalk() {
+    int start = chooseStart();
+    best.clear();
+    beam[0].clear();
+    beam[0].appendForward(start);
+    int width = 1;
+    if (lengthBound != null && lengthBound.getGraph() == graph
+        && lengthBound.through(start) <= getLengthCutoff()) {
+      metrics.countPruned();
+      return beam[0];
+    }
+
+    while (width > 0) {
+      int moves = 0;
+      for (int b = 0; b < width; b++) {
+        Path path = beam[b];
+        int pairs = scoreMoves(path);
+        boolean moved = false;
+        for (int x = 1; x < pairs; x++) {
+          int score = getPairScore(x);
+          if (score < 0) {
+            continue;
+          }
+          moved = true;
+          // Ties are broken at random so the beam doesn't favour early parents
+          long rank = ((long) score << 32) | (random.nextInt() & 0xFFFFFFFFL);
+          moves = offerMove(moves, rank, b, getPairHead(x), getPairTail(x));
+        }
+        if (!moved && path.size() > best.size()) {
+          best.copyFrom(path);
+        }
+      }
+
+      for (int m = 0; m < moves; m++) {
+        Path next = nextBeam[m];
+        next.copyFrom(beam[moveParent[m]]);
+        if (moveHead[m] >= 0) {
+          next.appendForward(moveHead[m]);
+        }
+        if (moveTail[m] >= 0) {
+          next.appendBackward(moveTail[m]);
+        }
+      }
+      if (moves > 0) {
+        metrics.countStep();
+      }
+
+      Path[] swap = beam;
+      beam = nextBeam;
+      nextBeam = swap;
+      width = moves;
+    }
+    return best;
+  }
+
+  /**
+   * Adds a move to the best moves of this step, kept in decreasing order of
+   * rank, and returns how many are kept
+   */
+  private int offerMove(int moves, long rank, int parent, int head, int tail) {
+    int x = moves;
+    if (moves == BEAM_WIDTH) {
+      if (rank <= moveRank[BEAM_WIDTH - 1]) {
+        return moves;
+      }
+      x--;
+    } else {
+      moves++;
+    }
+    for (; x > 0 && moveRank[x - 1] < rank; x--) {
+      moveRank[x] = moveRank[x - 1];
+      moveParent[x] = moveParent[x - 1];
+      moveHead[x] = moveHead[x - 1];
+      moveTail[x] = moveTail[x - 1];
+    }
+    moveRank[x] = rank;
+    moveParent[x] = parent;
+    moveHead[x] = head;
+    moveTail[x] = tail;
+    return moves;
+  }
+
+  /**
+   * Splices the start of one parent onto the end of another at a vertex they
+   * share, into child. The end is cut short where it would repeat a vertex.
+   *
+   * Returns false if the parents share no vertex
+   */
+  private boolean crossover() {
+    Path first = selectParent();
+    Path second = selectParent();
+    if (first == second) {
+      return false;
+    }
+
+    int shared = 0;
+    for (int x = 0; x < first.size(); x++) {
+      if (second.contains(first.get(x))) {
+        shared++;
+      }
+    }
+    if (shared == 0) {
+      return false;
+    }
+
+    int pick = random.nextInt(shared);
+    int cut = 0;
+    while (!second.contains(first.get(cut)) || pick-- > 0) {
+      cut++;
+    }
+    int vertex = first.get(cut);
+    int join = 0;
+    while (second.get(join) != vertex) {
+      join++;
+    }
+
+    child.clear();
+    for (int x = 0; x <= cut; x++) {
+      child.appendForward(first.get(x));
+    }
+    for (int x = join + 1; x < second.size() && !child.contains(second.get(x)); x++) {
+      child.appendForward(second.get(x));
+    }
+    return true;
+  }
+
+  /**
+   * Copies a parent into child with a random piece cut off each end
+   */
+  private void mutate() {
+    child.copyFrom(selectParent());
+    int heads = random.nextInt(Math.min(MAX_CUT, child.size() / 2) + 1);
+    int tails = random.nextInt(Math.min(MAX_CUT, child.size() / 2) + 1);
+    for (int x = 0; x < heads && child.size() > 1; x++) {
+      child.removeForward();
+    }
+    for (int x = 0; x < tails && child.size() > 1; x++) {
+      child.removeBackward();
+    }
+  }
+
+  /**
+   * The longer of two paths picked at random from the population
+   */
+  private Path selectParent() {
+    Path a = population.get(random.nextInt(population.size()));
+    Path b = population.get(random.nextInt(population.size()));
+    return (a.size() >= b.size()) ? a : b;
+  }
+
+  /**
+   * Copies a path into the population if it is longer than the shortest path
+   * there and not already in it
+   */
+  private void addToPopulation(Path path) {
+    if (path.size() <= 1) {
+      return;
+    }
+    if (population.size() == POPULATION && path.size() <= getLengthCutoff()) {
+      return;
+    }
+    for (Path member : population) {
+      if (member.size() == path.size()
+          && Arrays.equals(member.getVisited(), path.getVisited())) {
+        return;
+      }
+    }
+
+    Path copy = (population.size() == POPULATION)
+        ? population.remove(POPULATION - 1) : new Path(graph);
+    copy.copyFrom(path);
+    int x = 0;
+    while (x < population.size() && population.get(x).size() >= copy.size()) {
+      x++;
+    }
+    population.add(x, copy);
+  }
+
+  /**
+   * Sends the best path to the next island and takes in any sent here
+   */
+  private void migrate() {
+    if (!population.isEmpty()) {
+      islands.send(island, population.get(0));
+    }
+    Path migrant = islands.receive(island);
+    if (migrant != null) {
+      addToPopulation(migrant);
+    }
+  }
+
+  @Override
+  public void loadState(Properties state) {
+    super.loadState(state);
+    generation = Long.parseLong(state.getProperty("generation", "0"));
+    population.clear();
+    for (String text : state.getProperty("population", "").split(",")) {
+      if (text.trim().length() == 0) {
+        continue;
+      }
+      Path path = new Path(graph);
+      for (String vertex : text.trim().split(" ")) {
+        path.appendForward(Integer.parseInt(vertex));
+      }
+      addToPopulation(path);
+    }
+  }
+
+  @Override
+  protected void saveState(Properties state) {
+    super.saveState(state);
+    state.setProperty("generation", Long.toString(generation));
+    StringBuilder buf = new StringBuilder();
+    for (Path path : population) {
+      if (buf.length() > 0) {
+        buf.append(',');
+      }
+      for (int x = 0; x < path.size(); x++) {
+        if (x > 0) {
+          buf.append(' ');
+        }
+        buf.append(path.get(x));
+      }
+    }
+    state.setProperty("population", buf.toString());
+  }
+}
@@ -0,0 +1,40 @@
+package main.walkers;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import main.utils.Path;
+
+/**
+ * Ring of island walkers trading their best paths, see IslandWalker
+ *
+ * Each island has a slot that the island before it in the ring sends paths
+ * to. A path sent replaces any the island hasn't taken yet, so islands only
+ * ever swap whole paths through the slots and migrating never blocks.
+ *
+ * @author Peijin Zhang
+ */
+public class Islands {
+  private final AtomicReferenceArray<Path> slots;
+
+  public Islands(int count) {
+    this.slots = new AtomicReferenceArray<Path>(count);
+  }
+
+  public int size() {
+    return slots.length();
+  }
+
+  /**
+   * Sends a copy of a path to the island after the given one
+   */
+  public void send(int island, Path path) {
+    slots.set((island + 1) % slots.length(), new Path(path));
+  }
+
+  /**
+   * Takes the path last sent to an island, or returns null if none has come
+   */
+  public Path receive(int island) {
+    return slots.getAndSet(island, null);
+  }
+}
@@ -0,0 +1,313 @@
+package main.walkers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import main.utils.Graph;
+import main.utils.LengthBound;
+import main.utils.Path;
+
+/**
+ * Walker that runs the exact search on all cores
+ *
+ * Each walk is one pass of the exact search, see ExactSearch. A pass forks a
+ * task for every start vertex on a fork join pool. Tasks search their subtree
+ * and, whenever the pool runs short of queued work, fork the untried branches
+ * nearest the root of their stack as new tasks for idle threads to steal.
+ *
+ * All tasks share maxLength, so a longer path found by any of them tightens
+ * the bounds of all the others straight away.
+ *
+ * Every subtree handed to a task stays open until it has been searched, and
+ * the open subtrees are saved in the walker's state. A subtree being searched
+ * when the state is saved is searched again from its root after a resume. When
+ * stopped, tasks give up exactly their unsearched branches, which are written
+ * to the frontier file with the bounds proven so far.
+ *
+ * @author Peijin Zhang
+ */
+public class ParallelExactWalker extends Walker {
+  // Search steps between checks for stopping, longer paths and idle threads
+  private static final long STEPS_PER_CHECK = 1000;
+  // Tasks fork work while fewer than this many are queued
+  private static final int SPLIT_SURPLUS = 2;
+
+  private final LengthBound lengthBound;
+  private final ForkJoinPool pool;
+  private final String frontierFile;
+
+  private final ThreadLocal<ExactSearch> searches;
+  // Subtrees of the current pass which haven't been searched yet
+  private final Set<ExactSearch.Prefix> open;
+  // Subtrees left for the first pass after a resume, null to search every start
+  private List<ExactSearch.Prefix> resumed;
+  private final AtomicLong steps;
+  private final Path empty;
+
+  // Only changed between passes, guarded by this so snapshots see them together
+  private volatile int target;
+  private int upper;
+  private int step;
+  private int passes;
+  private boolean passing;
+  private boolean finished;
+
+  public ParallelExactWalker(final Graph graph, final LengthBound lengthBound, int threads,
+      String frontierFile, ResultPublisher results) {
+    super(graph, results);
+
+    setLengthBound(lengthBound);
+    this.lengthBound = lengthBound;
+    this.pool = new ForkJoinPool(threads);
+    this.frontierFile = frontierFile;
+
+    this.searches = new ThreadLocal<ExactSearch>() {
+      @Override
+      protected ExactSearch initialValue() {
+        return new ExactSearch(graph, lengthBound, maxLength);
+      }
+    };
+    this.open = Collections.synchronizedSet(new HashSet<ExactSearch.Prefix>());
+    this.resumed = null;
+    this.steps = new AtomicLong(0);
+    this.empty = new Path(graph);
+
+    this.upper = Math.min(lengthBound.getMax(), graph.size());
+    this.step = 1;
+    this.target = upper;
+    this.passes = 0;
+    this.passing = false;
+    this.finished = false;
+  }
+
+  /**
+   * Records the state right away, the walker only finishes a walk once a pass does
+   */
+  @Override
+  public void requestSnapshot() {
+    takeSnapshot();
+  }
+
+  @Override
+  protected synchronized void saveState(Properties state) {
+    super.saveState(state);
+    state.setProperty("passes", Integer.toString(passes));
+    state.setProperty("target", Integer.toString(target));
+    state.setProperty("upper", Integer.toString(upper));
+    state.setProperty("step", Integer.toString(step));
+    state.setProperty("steps", Long.toString(steps.get()));
+    if (passing) {
+      List<ExactSearch.Prefix> subtrees;
+      synchronized (open) {
+        subtrees = ExactSearch.Prefix.outermost(open);
+      }
+      state.setProperty("subtrees", ExactSearch.Prefix.join(subtrees));
+    } else if (resumed != null) {
+      state.setProperty("subtrees", ExactSearch.Prefix.join(resumed));
+    }
+  }
+
+  @Override
+  public synchronized void loadState(Properties state) {
+    super.loadState(state);
+    passes = Integer.parseInt(state.getProperty("passes"));
+    target = Integer.parseInt(state.getProperty("target"));
+    upper = Integer.parseInt(state.getProperty("upper"));
+    step = Integer.parseInt(state.getProperty("step"));
+    steps.set(Long.parseLong(state.getProperty("steps", "0")));
+    String subtrees = state.getProperty("subtrees");
+    resumed = (subtrees == null) ? null : ExactSearch.Prefix.parseAll(subtrees);
+  }
+
+  /**
+   * Runs one pass, lowering the upper bound or finishing the search
+   */
+  protected Path walkPath() {
+    if (upper > maxLength.get()) {
+      List<ExactSearch.Prefix> roots = resumed;
+      if (roots == null) {
+        roots = new ArrayList<ExactSearch.Prefix>();
+        for (int v = 0; v < graph.size(); v++) {
+          if (lengthBound.through(v) >= threshold()) {
+            roots.add(ExactSearch.Prefix.of(v));
+          }
+        }
+      }
+      synchronized (this) {
+        open.clear();
+        open.addAll(roots);
+        resumed = null;
+        passing = true;
+      }
+
+      pool.invoke(new Roots(roots, 0, roots.size()));
+      if (doneWalking) {
+        return empty;
+      }
+    }
+
+    synchronized (this) {
+      if (passing) {
+        passes++;
+        passing = false;
+      }
+      int incumbent = maxLength.get();
+      upper = Math.max(target - 1, incumbent);
+      System.out.format("Exhaustive pass %d: no path longer than %d, longest found %d%n",
+          passes, upper, incumbent);
+
+      if (upper <= incumbent) {
+        finished = true;
+        stop();
+      } else {
+        step = Math.min(step * 2, graph.size());
+        target = Math.max(incumbent + 1, upper - step + 1);
+      }
+    }
+    return empty;
+  }
+
+  @Override
+  public void run() {
+    System.out.format("Exhaustive search on %d threads%n", pool.getParallelism());
+    try {
+      super.run();
+    } finally {
+      pool.shutdownNow();
+    }
+
+    if (finished) {
+      System.out.format("Exhaustive search finished after %d steps, no path longer than %d%n",
+          steps.get(), upper);
+    } else {
+      System.out.format("Exhaustive search stopped after %d steps at target %d, gap %d to %d%n",
+          steps.get(), target, maxLength.get(), Math.max(upper, maxLength.get()));
+    }
+
+    try {
+      writeFrontier();
+    } catch (IOException e) {
+      System.err.println("Error writing to " + frontierFile);
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Writes the bounds and every subtree still to search for the current target
+   */
+  private void writeFrontier() throws IOException {
+    Properties state = new Properties();
+    saveState(state);
+    if (!finished && state.getProperty("subtrees") == null) {
+      // Stopped between passes, so the whole next pass is left
+      List<ExactSearch.Prefix> subtrees = new ArrayList<ExactSearch.Prefix>();
+      for (int v = 0; v < graph.size(); v++) {
+        if (lengthBound.through(v) >= threshold()) {
+          subtrees.add(ExactSearch.Prefix.of(v));
+        }
+      }
+      state.setProperty("subtrees", ExactSearch.Prefix.join(subtrees));
+    }
+    state.setProperty("finished", Boolean.toString(finished));
+    state.setProperty("incumbent", Integer.toString(maxLength.get()));
+    ExactSearch.writeFrontier(frontierFile, graph, state);
+  }
+
+  private int threshold() {
+    return Math.max(target, maxLength.get() + 1);
+  }
+
+  /**
+   * Searches the subtrees of roots from to to - 1
+   */
+  private class Roots extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<ExactSearch.Prefix> roots;
+    private final int from;
+    private final int to;
+
+    public Roots(List<ExactSearch.Prefix> roots, int from, int to) {
+      this.roots = roots;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > 1) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new Roots(roots, from, mid), new Roots(roots, mid, to));
+      } else if (to > from) {
+        new Subtree(roots.get(from)).compute();
+      }
+    }
+  }
+
+  /**
+   * Searches the subtree below a prefix, forking branches when threads are idle
+   */
+  private class Subtree extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final ExactSearch.Prefix prefix;
+
+    public Subtree(ExactSearch.Prefix prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    protected void compute() {
+      // Left open for whoever carries on from the snapshot
+      if (doneWalking) {
+        return;
+      }
+
+      ExactSearch search = searches.get();
+      long before = search.getSteps();
+      if (search.beginSubtree(target, prefix)) {
+        report(search.getBest());
+      }
+
+      List<Subtree> forked = new ArrayList<Subtree>();
+      List<ExactSearch.Prefix> donated = new ArrayList<ExactSearch.Prefix>();
+      while (!search.isFinished()) {
+        if (doneWalking) {
+          search.donate(donated, true);
+          open.addAll(donated);
+          break;
+        }
+
+        if (search.search(STEPS_PER_CHECK)) {
+          report(search.getBest());
+        }
+
+        if (getSurplusQueuedTaskCount() < SPLIT_SURPLUS && search.donate(donated, false) > 0) {
+          open.addAll(donated);
+          for (ExactSearch.Prefix branch : donated) {
+            Subtree task = new Subtree(branch);
+            task.fork();
+            forked.add(task);
+          }
+          donated.clear();
+        }
+      }
+      steps.addAndGet(search.getSteps() - before);
+      // Searched, or given away in full when stopped
+      open.remove(prefix);
+
+      // The search is done with, so joining may run other subtrees on this thread
+      for (Subtree task : forked) {
+        task.join();
+      }
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package main.walkers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import main.utils.Path;
+
+/**
+ * Publishes the longest paths found by walkers and writes them to the results file
+ *
+ * Walkers publish a path with a compare and set on the longest one so far, so
+ * they never wait on each other or on the file. Each published path links to
+ * the one it replaced, and a single writer thread follows the links back from
+ * the newest path to append every one it hasn't written yet, oldest first.
+ * Published paths only get longer, so the file stays in strictly increasing
+ * order and no path is skipped.
+ *
+ * @author Peijin Zhang
+ */
+public class ResultPublisher {
+  // Longest the writer sleeps before looking for new paths without being woken
+  private static final long WRITER_WAIT = 100;
+
+  private final String filename;
+  private final AtomicInteger maxLength;
+  private final AtomicReference<Result> latest;
+  private final Thread writer;
+
+  private volatile boolean closed;
+  // Length of the longest path known to be in the file
+  private volatile int written;
+
+  public ResultPublisher(String filename, AtomicInteger maxLength) {
+    this.filename = filename;
+    this.maxLength = maxLength;
+    this.latest = new AtomicReference<Result>(null);
+    this.closed = false;
+    this.written = maxLength.get();
+
+    this.writer = new Thread(new Runnable() {
+      public void run() {
+        drain();
+      }
+    }, "ResultWriter");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Length of the longest path so far, which walkers use to prune
+   */
+  public AtomicInteger getMaxLength() {
+    return maxLength;
+  }
+
+  public String getFilename() {
+    return filename;
+  }
+
+  /**
+   * Length of the longest path written to the file, or the starting length
+   */
+  public int getWrittenLength() {
+    return written;
+  }
+
+  /**
+   * Publishes a copy of a path if it is the longest so far, safe to call from
+   * any thread. Returns whether it was.
+   */
+  public boolean publish(Path path) {
+    int size = path.size();
+    Result result = null;
+    while (true) {
+      Result current = latest.get();
+      if (size <= maxLength.get() || (current != null && size <= current.path.size())) {
+        return false;
+      }
+      if (result == null) {
+        result = new Result(new Path(path));
+      }
+      result.previous = current;
+      if (latest.compareAndSet(current, result)) {
+        break;
+      }
+    }
+
+    // Only ever raised, a longer path may have been published in the meantime
+    int max = maxLength.get();
+    while (max < size && !maxLength.compareAndSet(max, size)) {
+      max = maxLength.get();
+    }
+    LockSupport.unpark(writer);
+    return true;
+  }
+
+  /**
+   * Writes every path published so far and stops the writer
+   */
+  public void close() throws InterruptedException {
+    closed = true;
+    LockSupport.unpark(writer);
+    writer.join();
+  }
+
+  private void drain() {
+    Result done = null;
+    while (true) {
+      // Read before the newest path, so nothing published before closing is missed
+      boolean last = closed;
+      Result newest = latest.get();
+      if (newest != done) {
+        write(newest, done);
+        done = newest;
+      } else if (last) {
+        return;
+      } else {
+        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(WRITER_WAIT));
+      }
+    }
+  }
+
+  /**
+   * Appends the paths published after done up to newest, oldest first
+   */
+  private void write(Result newest, Result done) {
+    List<Result> results = new ArrayList<Result>();
+    for (Result result = newest; result != done; result = result.previous) {
+      results.add(result);
+    }
+
+    for (int x = results.size() - 1; x >= 0; x--) {
+      Path path = results.get(x).path;
+      try {
+        path.writeToFile(filename);
+        written = path.size();
+      } catch (IOException e) {
+        System.err.println("Error writing to " + filename);
+        e.printStackTrace();
+      }
+    }
+    // Only the writer follows the links, so written paths can be let go
+    newest.previous = null;
+  }
+
+  /**
+   * A published path and the one it replaced
+   */
+  private static class Result {
+    private final Path path;
+    private Result previous;
+
+    public Result(Path path) {
+      this.path = path;
+    }
+  }
+}
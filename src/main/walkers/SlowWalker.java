@@ -1,16 +1,11 @@
 package main.walkers;
 
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
 
 import main.utils.Graph;
-import main.utils.GraphUtils;
 import main.utils.Path;
+import main.utils.Reachability;
+import main.utils.ReachabilityCache;
 
 /**
  * Intelligent Random Walker with improved path lengths but decreased speed
@@ -22,87 +17,64 @@ import main.utils.Path;
 public class SlowWalker extends TwoWayWalker {
   // If set to true, we search all possible solutions. If set to false, we only find
   // the local optimum at each point. Doing local optimums gives us generally longer paths
-  // but does not guarantee us to be able to find the longest
+  // but does not guarantee us to be able to find the longest. Walks stay random either
+  // way, ParallelExactWalker searches every path
   public static boolean EXHAUSTIVE_BASE = false;
 
-  protected final Random random;
-  protected List<CandidatePair> pairs;
+  protected final Reachability reachability;
   protected boolean exhaustive;
 
-  public SlowWalker(Graph graph, List<Integer> initstates, String filename,
-      AtomicInteger maxLength, Lock fileLock) {
-    super(graph, initstates, filename, maxLength, fileLock);
+  public SlowWalker(Graph graph, List<Integer> initstates, ResultPublisher results) {
+    super(graph, initstates, results);
 
-    this.random = new Random(System.nanoTime());
-    this.pairs = new ArrayList<CandidatePair>();
+    this.reachability = new Reachability();
     this.exhaustive = EXHAUSTIVE_BASE;
   }
 
+  /**
+   * Shares reachability searches with other walkers through a cache
+   */
+  public void setCache(ReachabilityCache cache) {
+    reachability.setCache(cache);
+  }
+
+  @Override
+  protected long getVisited() {
+    return reachability.getVisited();
+  }
+
   protected int chooseStart() {
     return initstates.get(random.nextInt(initstates.size()));
   }
 
-  protected List<Candidate> getOutCandidates(int head, Path path) {
-    List<Candidate> outCandidates = new ArrayList<Candidate>();
+  protected void getOutCandidates(int head, Path path, List<Candidate> outCandidates) {
     outCandidates.add(null);
-    for (int edge : graph.getOutEdges(head)) {
-      if (!path.contains(edge)) {
-        Set<Integer> reachable = GraphUtils.searchForward(graph, edge, path.getVisited());
-        outCandidates.add(new Candidate(edge, reachable));
+    int degree = graph.outDegree(head);
+    for (int y = 0; y < degree; y++) {
+      int edge = graph.outEdge(head, y);
+      if (!path.contains(edge) && canBeatForward(edge, path)) {
+        Candidate candidate = newOutCandidate(edge);
+        reachability.searchForwardShared(graph, edge, path.getVisited(), candidate.reachable);
+        outCandidates.add(candidate);
       }
     }
-    return outCandidates;
   }
 
-  protected List<Candidate> getInCandidates(int tail, Path path) {
-    List<Candidate> inCandidates = new ArrayList<Candidate>();
+  protected void getInCandidates(int tail, Path path, List<Candidate> inCandidates) {
     inCandidates.add(null);
-    for (int edge : graph.getInEdges(tail)) {
-      if (!path.contains(edge)) {
-        Set<Integer> reachable = GraphUtils.searchBackward(graph, edge, path.getVisited());
-        inCandidates.add(new Candidate(edge, reachable));
+    int degree = graph.inDegree(tail);
+    for (int y = 0; y < degree; y++) {
+      int edge = graph.inEdge(tail, y);
+      if (!path.contains(edge) && canBeatBackward(edge, path)) {
+        Candidate candidate = newInCandidate(edge);
+        reachability.searchBackwardShared(graph, edge, path.getVisited(), candidate.reachable);
+        inCandidates.add(candidate);
       }
     }
-    return inCandidates;
   }
 
-  protected CandidatePair getNext(List<Candidate> outCandidates, List<Candidate> inCandidates) {
-    pairs.clear();
-
-    int maxsize = -1;
-    for (int x = 0; x < outCandidates.size(); x++) {
-      for (int y = 0; y < inCandidates.size(); y++) {
-        if (x == 0 || y == 0 || outCandidates.get(x).node != inCandidates.get(y).node) {
-
-          Set<Integer> reachable = new HashSet<Integer>();
-
-          if (x != 0) {
-            reachable.addAll(outCandidates.get(x).reachable);
-          }
-
-          if (y != 0) {
-            reachable.addAll(inCandidates.get(y).reachable);
-          }
-
-          maxsize = Math.max(maxsize, reachable.size());
-          pairs.add(new CandidatePair(outCandidates.get(x), inCandidates.get(y)));
-        }
-      }
-    }
-
-    for (int x = 0; x < pairs.size(); x++) {
-      int cutoff = (exhaustive) ? maxLength.get() : maxsize;
-      if (pairs.get(x).reachable.size() < cutoff) {
-        pairs.remove(x);
-        x--;
-      }
-    }
-
-    if (pairs.size() > 0) {
-      int move = random.nextInt(pairs.size());
-      return pairs.get(move);
-    } else {
-      return null;
-    }
+  protected int getNext(List<Candidate> outCandidates, List<Candidate> inCandidates) {
+    int maxsize = scorePairs(outCandidates, inCandidates);
+    return pickAtLeast((exhaustive) ? maxLength.get() : maxsize);
   }
 }
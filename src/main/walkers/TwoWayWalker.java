@@ -1,12 +1,11 @@
 package main.walkers;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
+import java.util.Map;
 
+import main.utils.BitsetUtils;
 import main.utils.Graph;
 import main.utils.Path;
 
@@ -21,7 +20,7 @@ import main.utils.Path;
  *  chooseStart() - choose a starting vertex at each walk
  *  getOutCandidates() - get all candidates for an out vertex
  *  getInCandidates() - get all candidates for an in vertex
- *  getNext() - choose the next nodes to go to given candidates
+ *  getNext() - choose the next pair of candidates to go to, see scorePairs
  * 
  * @author Peijin Zhang
  */
@@ -29,36 +28,76 @@ public abstract class TwoWayWalker extends Walker {
 
   protected List<Integer> initstates;
 
-  public TwoWayWalker(Graph graph, List<Integer> initstates, String filename,
-      AtomicInteger maxLength, Lock fileLock) {
-    super(graph, filename, maxLength, fileLock);
+  // Walk state reused between walks and steps so that walking does not allocate
+  // One per graph walked on, so walkers switching graphs don't allocate either
+  private final Map<Graph, Workspace> workspaces;
+  private Workspace workspace;
+  private final List<Candidate> outCandidates;
+  private final List<Candidate> inCandidates;
+  // Scores of the pairs of the current step, see scorePairs
+  private int[] scores;
+  private int pairCount;
+
+  public TwoWayWalker(Graph graph, List<Integer> initstates, ResultPublisher results) {
+    super(graph, results);
 
     this.initstates = initstates;
+
+    this.outCandidates = new ArrayList<Candidate>();
+    this.inCandidates = new ArrayList<Candidate>();
+    this.workspaces = new IdentityHashMap<Graph, Workspace>();
+    this.workspace = null;
+    this.scores = new int[0];
+    this.pairCount = 0;
   }
 
   /**
    * Walks one random walk onto the given path
+   * 
+   * The returned path is reused by the next walk, copy it to keep it
    */
   protected Path walkPath(Path init) {
-    Path path = new Path(init);
-    
+    Path path = getWorkspace(init.getGraph()).path;
+    path.copyFrom(init);
+    return walk(path);
+  }
+
+  public Path walkPath() {
+    Path path = getWorkspace(graph).path;
+    path.clear();
+    int start = chooseStart();
+    path.appendForward(start);
+    if (isBounded(path) && lengthBound.through(start) <= getLengthCutoff()) {
+      metrics.countPruned();
+      return path;
+    }
+    return walk(path);
+  }
+
+  /**
+   * Extends a path in place until neither end can move
+   */
+  private Path walk(Path path) {
     int head = path.getHead();
     int tail = path.getTail();
 
     boolean movedForward = true;
     boolean movedBackward = true;
 
-    List<Candidate> outCandidates = null;
-    List<Candidate> inCandidates = null;
-
     while (movedForward || movedBackward) {
       if (movedForward) {
-        outCandidates = getOutCandidates(head, path);
+        outCandidates.clear();
+        getWorkspace(graph).outPool.reset(graph);
+        getOutCandidates(head, path, outCandidates);
+        metrics.countCandidates(outCandidates.size() - 1);
       } else {
         filterCandidates(outCandidates, path);
       }
       if (movedBackward) {
-        inCandidates = getInCandidates(tail, path);
+        inCandidates.clear();
+        getWorkspace(graph).inPool.reset(graph);
+        getInCandidates(tail, path, inCandidates);
+        metrics.countCandidates(inCandidates.size() - 1);
       } else {
         filterCandidates(inCandidates, path);
       }
@@ -66,18 +105,21 @@ public abstract class TwoWayWalker extends Walker {
       movedForward = false;
       movedBackward = false;
 
-      CandidatePair next = getNext(outCandidates, inCandidates);
+      int next = getNext(outCandidates, inCandidates);
 
-      if (next != null) {
-        if (next.forward != null) {
+      if (next >= 0) {
+        metrics.countStep();
+        Candidate forward = outCandidates.get(next / inCandidates.size());
+        Candidate backward = inCandidates.get(next % inCandidates.size());
+        if (forward != null) {
           movedForward = true;
-          head = next.forward.node;
+          head = forward.node;
           path.appendForward(head);
         }
 
-        if (next.backward != null) {
+        if (backward != null) {
           movedBackward = true;
-          tail = next.backward.node;
+          tail = backward.node;
           path.appendBackward(tail);
         }
       }
@@ -86,67 +128,285 @@ public abstract class TwoWayWalker extends Walker {
     return path;
   }
 
-  public Path walkPath() {
-    Path path = new Path(graph);
-    int start = chooseStart();
-    path.appendForward(start);
-    return walkPath(path);
+  /**
+   * Finds and scores every pair of moves from a path, as a step of a walk
+   * would, and returns the number of pairs. Pair 0 moves neither end.
+   * 
+   * The pairs are valid until the next call, see getPairHead, getPairTail and
+   * getPairScore.
+   */
+  protected int scoreMoves(Path path) {
+    outCandidates.clear();
+    getWorkspace(graph).outPool.reset(graph);
+    getOutCandidates(path.getHead(), path, outCandidates);
+    metrics.countCandidates(outCandidates.size() - 1);
+
+    inCandidates.clear();
+    getWorkspace(graph).inPool.reset(graph);
+    getInCandidates(path.getTail(), path, inCandidates);
+    metrics.countCandidates(inCandidates.size() - 1);
+
+    scorePairs(outCandidates, inCandidates);
+    return pairCount;
+  }
+
+  /**
+   * Vertex a pair moves the head to, or -1 if the head stays
+   */
+  protected int getPairHead(int pair) {
+    Candidate candidate = outCandidates.get(pair / inCandidates.size());
+    return (candidate == null) ? -1 : candidate.node;
+  }
+
+  /**
+   * Vertex a pair moves the tail to, or -1 if the tail stays
+   */
+  protected int getPairTail(int pair) {
+    Candidate candidate = inCandidates.get(pair % inCandidates.size());
+    return (candidate == null) ? -1 : candidate.node;
+  }
+
+  /**
+   * Score of a pair, see scorePairs
+   */
+  protected int getPairScore(int pair) {
+    return scores[pair];
+  }
+
+  private Workspace getWorkspace(Graph graph) {
+    if (workspace == null || workspace.path.getGraph() != graph) {
+      workspace = workspaces.get(graph);
+      if (workspace == null) {
+        workspace = new Workspace(graph);
+        workspaces.put(graph, workspace);
+      }
+    }
+    return workspace;
   }
 
+  /**
+   * Removes candidates which are now on the path, keeping the rest in order
+   */
   private void filterCandidates(List<Candidate> candidates, Path path) {
-    List<Candidate> newCandidates = new ArrayList<Candidate>(candidates.size());
-    for (Candidate candidate : candidates) {
+    int kept = 0;
+    for (int x = 0; x < candidates.size(); x++) {
+      Candidate candidate = candidates.get(x);
       if (candidate == null || !path.contains(candidate.node)) {
-        newCandidates.add(candidate);
+        candidates.set(kept++, candidate);
       }
     }
-    candidates.clear();
-    candidates.addAll(newCandidates);
+    while (candidates.size() > kept) {
+      candidates.remove(candidates.size() - 1);
+    }
+  }
+
+  /**
+   * Starts and candidates are only skipped on the graph of the length bound
+   */
+  private boolean isBounded(Path path) {
+    return lengthBound != null && lengthBound.getGraph() == path.getGraph();
+  }
+
+  /**
+   * Length a walk must beat to be worth continuing, maxLength by default
+   */
+  protected int getLengthCutoff() {
+    return maxLength.get();
+  }
+
+  /**
+   * Whether moving the head to node could still end longer than the cutoff
+   */
+  protected boolean canBeatForward(int node, Path path) {
+    if (!isBounded(path) || path.size() + lengthBound.forward(node)
+        + lengthBound.backward(path.getTail()) - 1 > getLengthCutoff()) {
+      return true;
+    }
+    metrics.countPruned();
+    return false;
+  }
+
+  /**
+   * Whether moving the tail to node could still end longer than the cutoff
+   */
+  protected boolean canBeatBackward(int node, Path path) {
+    if (!isBounded(path) || path.size() + lengthBound.backward(node)
+        + lengthBound.forward(path.getHead()) - 1 > getLengthCutoff()) {
+      return true;
+    }
+    metrics.countPruned();
+    return false;
+  }
+
+  /**
+   * Gets a reusable out candidate for a vertex, valid until the head moves
+   */
+  protected Candidate newOutCandidate(int node) {
+    return workspace.outPool.obtain(node);
+  }
+
+  /**
+   * Gets a reusable in candidate for a vertex, valid until the tail moves
+   */
+  protected Candidate newInCandidate(int node) {
+    return workspace.inPool.obtain(node);
   }
 
   protected abstract int chooseStart();
 
   /**
-   * Gets possible outCandidates
+   * Adds possible outCandidates to the given empty list
    * Requires first index to be null
    */
-  protected abstract List<Candidate> getOutCandidates(int head, Path path);
+  protected abstract void getOutCandidates(int head, Path path, List<Candidate> outCandidates);
 
   /**
-   * Gets possible inCandidates
+   * Adds possible inCandidates to the given empty list
    * Requires first index to be null
    */
-  protected abstract List<Candidate> getInCandidates(int tail, Path path);
+  protected abstract void getInCandidates(int tail, Path path, List<Candidate> inCandidates);
 
-  protected abstract CandidatePair getNext(
-      List<Candidate> outCandidates, List<Candidate> inCandidates);
+  /**
+   * Returns the index of the pair to move to, see scorePairs, or -1 to stop
+   */
+  protected abstract int getNext(List<Candidate> outCandidates, List<Candidate> inCandidates);
+
+  /**
+   * Scores every pair of an out and an in candidate in one pass
+   * 
+   * The score of pair x * inCandidates.size() + y is the size of the union of
+   * the reachable sets of out candidate x and in candidate y, or -1 if both
+   * are the same vertex. Null candidates stay put and add nothing. Returns the
+   * highest score.
+   */
+  protected int scorePairs(List<Candidate> outCandidates, List<Candidate> inCandidates) {
+    int outs = outCandidates.size();
+    int ins = inCandidates.size();
+    pairCount = outs * ins;
+    if (scores.length < pairCount) {
+      scores = new int[pairCount];
+    }
+
+    // Pairs with the null candidate only score the other one
+    scores[0] = 0;
+    int max = 0;
+    for (int y = 1; y < ins; y++) {
+      scores[y] = BitsetUtils.cardinality(inCandidates.get(y).reachable);
+      max = Math.max(max, scores[y]);
+    }
+
+    for (int x = 1; x < outs; x++) {
+      Candidate out = outCandidates.get(x);
+      long[] forward = out.reachable;
+      int row = x * ins;
+      scores[row] = BitsetUtils.cardinality(forward);
+      max = Math.max(max, scores[row]);
+
+      for (int y = 1; y < ins; y++) {
+        Candidate in = inCandidates.get(y);
+        if (in.node == out.node) {
+          scores[row + y] = -1;
+          continue;
+        }
+        int score = BitsetUtils.orCardinality(forward, in.reachable);
+        scores[row + y] = score;
+        max = Math.max(max, score);
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Picks uniformly at random from the pairs scoring at least cutoff,
+   * returning -1 if there are none
+   */
+  protected int pickAtLeast(int cutoff) {
+    int count = 0;
+    for (int x = 0; x < pairCount; x++) {
+      if (scores[x] >= cutoff) {
+        count++;
+      }
+    }
+    if (count == 0) {
+      return -1;
+    }
+
+    int pick = random.nextInt(count);
+    for (int x = 0; x < pairCount; x++) {
+      if (scores[x] >= cutoff && pick-- == 0) {
+        return x;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the last pair with the given score, or -1 if there is none
+   */
+  protected int pickLast(int score) {
+    for (int x = pairCount - 1; x >= 0; x--) {
+      if (scores[x] == score) {
+        return x;
+      }
+    }
+    return -1;
+  }
 
   protected static class Candidate {
-    public final int node;
-    public final Set<Integer> reachable;
+    public int node;
+    // Bitset of the vertices reachable through this candidate
+    public final long[] reachable;
 
-    public Candidate(int node, Set<Integer> reachable) {
-      this.node = node;
+    public Candidate(long[] reachable) {
       this.reachable = reachable;
     }
   }
 
-  protected static class CandidatePair {
-    public final Candidate forward;
-    public final Candidate backward;
-    public final Set<Integer> reachable;
+  /**
+   * Path and candidate pools reused by walks on one graph
+   */
+  private static class Workspace {
+    private final Path path;
+    private final CandidatePool outPool;
+    private final CandidatePool inPool;
 
-    public CandidatePair(Candidate forward, Candidate backward) {
-      this.forward = forward;
-      this.backward = backward;
+    public Workspace(Graph graph) {
+      this.path = new Path(graph);
+      this.outPool = new CandidatePool();
+      this.inPool = new CandidatePool();
+    }
+  }
+
+  /**
+   * Candidates with preallocated reachable sets, handed out again after reset
+   */
+  private static class CandidatePool {
+    private final List<Candidate> candidates;
+    private int words;
+    private int used;
+
+    public CandidatePool() {
+      this.candidates = new ArrayList<Candidate>();
+      this.words = 0;
+      this.used = 0;
+    }
+
+    public void reset(Graph graph) {
+      int needed = BitsetUtils.words(graph.size());
+      if (needed != words) {
+        candidates.clear();
+        words = needed;
+      }
+      used = 0;
+    }
 
-      reachable = new HashSet<Integer>();
-      if (forward != null) {
-        reachable.addAll(forward.reachable);
-      } 
-      if (backward != null) {
-        reachable.addAll(backward.reachable);
+    public Candidate obtain(int node) {
+      if (used == candidates.size()) {
+        candidates.add(new Candidate(new long[words]));
       }
+      Candidate candidate = candidates.get(used++);
+      candidate.node = node;
+      return candidate;
     }
   }
 }
@@ -1,10 +1,12 @@
 package main.walkers;
 
-import java.io.IOException;
+import java.util.Properties;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicLong;
 
 import main.utils.Graph;
+import main.utils.LengthBound;
 import main.utils.Path;
 
 /**
@@ -16,64 +18,195 @@ import main.utils.Path;
  * @author Peijin Zhang
  */
 public abstract class Walker implements Runnable {
-  protected boolean doneWalking;
+  protected volatile boolean doneWalking;
 
   protected Graph graph;
 
   protected final AtomicInteger maxLength;
+  protected final Random random;
+  // Same as random, kept to read its state for snapshots
+  private final SavedRandom savedRandom;
+  // Null if paths aren't bounded
+  protected LengthBound lengthBound;
   
-  private final String filename;
-  private final Lock fileLock;
+  private final ResultPublisher results;
+  protected final WalkerMetrics metrics;
 
-  public Walker(Graph graph, String filename,
-      AtomicInteger maxLength, Lock fileLock) {
+  // Walks left for all walkers sharing this budget, null if unbounded
+  private AtomicLong walkBudget;
+  private long walks;
+
+  // State recorded between walks for checkpoints, see requestSnapshot
+  protected volatile boolean snapshotRequested;
+  protected volatile Properties snapshot;
+
+  public Walker(Graph graph, ResultPublisher results) {
     this.graph = graph;
 
-    this.maxLength = maxLength;
-    this.filename = filename;
-    this.fileLock = fileLock;
+    this.maxLength = results.getMaxLength();
+    this.results = results;
+    this.metrics = new WalkerMetrics(graph.size());
+
+    this.savedRandom = new SavedRandom(System.nanoTime());
+    this.random = savedRandom;
 
     doneWalking = false;
+    walks = 0;
+  }
+
+  public void setSeed(long seed) {
+    random.setSeed(seed);
+  }
+
+  /**
+   * Bounds on path lengths walkers may use to skip work that can't beat maxLength
+   */
+  public void setLengthBound(LengthBound lengthBound) {
+    this.lengthBound = lengthBound;
+  }
+
+  /**
+   * Shares a budget of walks between walkers, each walk takes one from it
+   */
+  public void setWalkBudget(AtomicLong walkBudget) {
+    this.walkBudget = walkBudget;
+  }
+
+  /**
+   * Asks the walker to stop after its current walk
+   */
+  public void stop() {
+    doneWalking = true;
+  }
+
+  /**
+   * Number of walks done, only accurate once the walker has stopped
+   */
+  public long getWalks() {
+    return walks;
+  }
+
+  public WalkerMetrics getMetrics() {
+    return metrics;
   }
 
   protected abstract Path walkPath();
 
   /**
-   * Writes path to file
+   * Vertices visited by the walker's reachability searches so far, if it has any
    */
-  private void writeResult(Path path) {
-    fileLock.lock();
-
-    // Check again in case it changed
-    if (path.size() > maxLength.get()) {
-      try {
-        path.writeToFile(filename);
-        maxLength.set(path.size());
-      } catch (IOException e) {
-        System.err.println("Error writing to " + filename);
-        e.printStackTrace();
-      }
-    }
+  protected long getVisited() {
+    return 0;
+  }
+
+  /**
+   * Asks the walker to record its state after its current walk, see getSnapshot
+   */
+  public void requestSnapshot() {
+    snapshotRequested = true;
+  }
 
-    fileLock.unlock();
+  /**
+   * The last state recorded, null if none has been yet. The walker records its
+   * final state when it stops.
+   */
+  public Properties getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Carries on from a state recorded by an earlier walker on the same graph
+   */
+  public void loadState(Properties state) {
+    random.setSeed(Long.parseLong(state.getProperty("seed")));
+    walks = Long.parseLong(state.getProperty("walks", "0"));
+  }
+
+  /**
+   * Records the state of the walker, subclasses add their own after calling this
+   */
+  protected void saveState(Properties state) {
+    // Seeding a walker with this carries on with the same numbers, and reading
+    // it leaves the numbers this walker draws unchanged
+    state.setProperty("seed", Long.toString(savedRandom.getSeed()));
+    state.setProperty("walks", Long.toString(walks));
+  }
+
+  protected void takeSnapshot() {
+    snapshotRequested = false;
+    Properties state = new Properties();
+    saveState(state);
+    snapshot = state;
+  }
+
+  /**
+   * Publishes a path if it is the longest so far, safe to call from any thread
+   */
+  protected void report(Path path) {
+    if (results.publish(path)) {
+      metrics.improved(path.size());
+      System.out.println(path.size());
+    }
   }
 
   @Override
   public void run() {
-    long paths = 0;
     while (!doneWalking) {
+      if (snapshotRequested) {
+        takeSnapshot();
+      }
+      if (walkBudget != null && walkBudget.getAndDecrement() <= 0) {
+        break;
+      }
+
       Path path = walkPath();
-      paths++;
+      walks++;
+      metrics.endWalk(path.size(), getVisited());
+      report(path);
 
-      // Check with atomic integer so no context switch required
-      if (path.size() > maxLength.get()) {
-        System.out.println(path.size());
-        writeResult(path);
+      if (walks % 10000 == 0) {
+        System.out.println("Paths walked: " + walks);
       }
+    }
+    takeSnapshot();
+  }
 
-      if (paths % 10000 == 0) {
-        System.out.println("Paths walked: " + paths);
-      }
+  /**
+   * Random whose state can be read without drawing from it
+   * 
+   * Steps the same 48 bit generator as Random, so it draws the same numbers as
+   * a Random with the same seed.
+   */
+  private static class SavedRandom extends Random {
+    private static final long serialVersionUID = 1L;
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    // Set by setSeed, which the constructor calls
+    private long state;
+
+    public SavedRandom(long seed) {
+      super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+      super.setSeed(seed);
+      state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+      state = (state * MULTIPLIER + ADDEND) & MASK;
+      return (int) (state >>> (48 - bits));
+    }
+
+    /**
+     * A seed that makes a Random carry on from where this one is
+     */
+    public long getSeed() {
+      return state ^ MULTIPLIER;
     }
   }
 }
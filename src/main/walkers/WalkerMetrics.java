@@ -0,0 +1,130 @@
+package main.walkers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters kept by one walker
+ *
+ * The walker's thread counts into plain fields as it walks and publishes them
+ * with ordered writes at the end of every walk, so counting costs next to
+ * nothing and other threads always see whole walks. Only improvements are
+ * recorded straight away, since they can come from any thread.
+ *
+ * @author Peijin Zhang
+ */
+public class WalkerMetrics {
+  // Written by the walker's thread only
+  private long steps;
+  private long candidates;
+  private long pruned;
+
+  private final AtomicLong walks;
+  private final AtomicLong publishedSteps;
+  private final AtomicLong publishedCandidates;
+  private final AtomicLong publishedPruned;
+  private final AtomicLong visited;
+  // Walks ending at each path length, the last bucket takes any longer
+  private final AtomicLongArray lengths;
+
+  // Nano time and length of each improvement, guarded by itself
+  private final List<long[]> improvements;
+
+  public WalkerMetrics(int maxLength) {
+    this.walks = new AtomicLong();
+    this.publishedSteps = new AtomicLong();
+    this.publishedCandidates = new AtomicLong();
+    this.publishedPruned = new AtomicLong();
+    this.visited = new AtomicLong();
+    this.lengths = new AtomicLongArray(maxLength + 1);
+    this.improvements = new ArrayList<long[]>();
+  }
+
+  /**
+   * Counts one move of a walk
+   */
+  public void countStep() {
+    steps++;
+  }
+
+  /**
+   * Counts candidates generated for a move
+   */
+  public void countCandidates(int count) {
+    candidates += count;
+  }
+
+  /**
+   * Counts a start or candidate skipped because it can't beat the cutoff
+   */
+  public void countPruned() {
+    pruned++;
+  }
+
+  /**
+   * Publishes the counts of a finished walk, given the vertices its searches
+   * have visited in total
+   */
+  public void endWalk(int length, long totalVisited) {
+    int bucket = Math.min(length, lengths.length() - 1);
+    lengths.lazySet(bucket, lengths.get(bucket) + 1);
+    publishedSteps.lazySet(steps);
+    publishedCandidates.lazySet(candidates);
+    publishedPruned.lazySet(pruned);
+    visited.lazySet(totalVisited);
+    walks.lazySet(walks.get() + 1);
+  }
+
+  /**
+   * Records a new longest path, safe to call from any thread
+   */
+  public void improved(int length) {
+    synchronized (improvements) {
+      improvements.add(new long[] {System.nanoTime(), length});
+    }
+  }
+
+  public long getWalks() {
+    return walks.get();
+  }
+
+  public long getSteps() {
+    return publishedSteps.get();
+  }
+
+  public long getCandidates() {
+    return publishedCandidates.get();
+  }
+
+  public long getPruned() {
+    return publishedPruned.get();
+  }
+
+  /**
+   * Vertices visited by reachability searches
+   */
+  public long getVisited() {
+    return visited.get();
+  }
+
+  /**
+   * Adds the number of walks ending at each length to histogram
+   */
+  public void addLengths(long[] histogram) {
+    int count = Math.min(histogram.length, lengths.length());
+    for (int x = 0; x < count; x++) {
+      histogram[x] += lengths.get(x);
+    }
+  }
+
+  /**
+   * Nano time and length of each improvement so far, oldest first
+   */
+  public List<long[]> getImprovements() {
+    synchronized (improvements) {
+      return new ArrayList<long[]>(improvements);
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package main.walkers;
+
+/**
+ * Walker strategies that can be picked from the command line
+ * 
+ * @author Peijin Zhang
+ */
+public enum WalkerType {
+  SLOW("slow"),
+  FAST("fast"),
+  DETERMINISTIC("deterministic"),
+  EXPERIMENTAL("experimental"),
+  EXACT("exact"),
+  EXHAUSTIVE("exhaustive"),
+  ISLAND("island");
+
+  private final String name;
+
+  private WalkerType(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public static WalkerType fromName(String name) {
+    for (WalkerType type : values()) {
+      if (type.name.equalsIgnoreCase(name)) {
+        return type;
+      }
+    }
+    throw new IllegalArgumentException("Unknown walker " + name);
+  }
+}